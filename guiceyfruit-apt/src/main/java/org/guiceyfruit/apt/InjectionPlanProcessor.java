@@ -0,0 +1,412 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.apt;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * A JSR-269 annotation processor which generates an <code>InjectionPlan</code> for each class
+ * declaring fields or methods annotated with one of the injection or lifecycle annotations
+ * supported by GuiceyFruit so that the members do not have to be found by reflection at runtime.
+ *
+ * Additional annotations can be included by passing a comma separated list of annotation class
+ * names via the <code>-Aguiceyfruit.annotations=...</code> compiler option.
+ *
+ * Each plan records a fingerprint of the members of its class so that a plan which is out of date
+ * with its class, such as when the class is recompiled without the processor, is ignored at
+ * runtime and the class is scanned instead.
+ *
+ * @version $Revision: 1.1 $
+ */
+@SupportedOptions(InjectionPlanProcessor.ANNOTATIONS_OPTION)
+public class InjectionPlanProcessor extends AbstractProcessor {
+  public static final String ANNOTATIONS_OPTION = "guiceyfruit.annotations";
+
+  /** The annotations included in every generated plan */
+  public static final String[] DEFAULT_ANNOTATIONS = {
+      "javax.annotation.Resource",
+      "javax.annotation.PostConstruct",
+      "javax.annotation.PreDestroy",
+      "javax.ejb.EJB",
+      "javax.persistence.PersistenceContext",
+      "org.springframework.beans.factory.annotation.Autowired"
+  };
+
+  private static final String PLAN_INTERFACE = "org.guiceyfruit.support.InjectionPlan";
+  private static final String PLAN_SUFFIX = "$$InjectionPlan";
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final Set<String> annotationTypeNames = new TreeSet<String>();
+  private final Set<String> generatedTypes = new TreeSet<String>();
+  private Elements elements;
+  private Types types;
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    elements = processingEnv.getElementUtils();
+    types = processingEnv.getTypeUtils();
+
+    Collections.addAll(annotationTypeNames, DEFAULT_ANNOTATIONS);
+    String option = processingEnv.getOptions().get(ANNOTATIONS_OPTION);
+    if (option != null) {
+      for (String name : option.split(",")) {
+        name = name.trim();
+        if (name.length() > 0) {
+          annotationTypeNames.add(name);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.unmodifiableSet(annotationTypeNames);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    Set<TypeElement> annotatedTypes = new LinkedHashSet<TypeElement>();
+    for (TypeElement annotation : annotations) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        ElementKind kind = element.getKind();
+        if (kind == ElementKind.FIELD || kind == ElementKind.METHOD) {
+          annotatedTypes.add((TypeElement) element.getEnclosingElement());
+        }
+      }
+    }
+    for (TypeElement type : annotatedTypes) {
+      generatePlan(type);
+    }
+
+    // let other processors see the annotations too
+    return false;
+  }
+
+  protected void generatePlan(TypeElement type) {
+    ElementKind kind = type.getKind();
+    NestingKind nesting = type.getNestingKind();
+    if ((kind != ElementKind.CLASS && kind != ElementKind.ENUM)
+        || nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+      return;
+    }
+    String binaryName = elements.getBinaryName(type).toString();
+    if (!generatedTypes.add(binaryName)) {
+      return;
+    }
+    PackageElement packageElement = elements.getPackageOf(type);
+
+    List<VariableElement> fields = new ArrayList<VariableElement>();
+    for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      if (isAnnotated(field)) {
+        fields.add(field);
+      }
+    }
+    List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+    List<ExecutableElement> overridingMethods = new ArrayList<ExecutableElement>();
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (isAnnotated(method)) {
+        methods.add(method);
+      }
+      if (overridesAnnotatedMethod(type, method)) {
+        overridingMethods.add(method);
+      }
+    }
+
+    // the generated plan refers to the parameter types of the methods so if they are not visible
+    // from the package we leave the class to be scanned reflectively at runtime
+    List<ExecutableElement> allMethods = new ArrayList<ExecutableElement>(methods);
+    allMethods.addAll(overridingMethods);
+    for (ExecutableElement method : allMethods) {
+      for (VariableElement parameter : method.getParameters()) {
+        if (!isAccessible(types.erasure(parameter.asType()), packageElement)) {
+          processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+              "No injection plan generated for " + binaryName + " as the parameter types of "
+                  + method + " are not accessible", type);
+          return;
+        }
+      }
+    }
+
+    String packageName = packageElement.isUnnamed() ? ""
+        : packageElement.getQualifiedName().toString();
+    String planName = binaryName + PLAN_SUFFIX;
+    String planSimpleName = packageName.length() > 0
+        ? planName.substring(packageName.length() + 1) : planName;
+
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(planName, type);
+      PrintWriter out = new PrintWriter(file.openWriter());
+      try {
+        writePlan(out, packageName, planSimpleName, binaryName, getFingerprint(type), fields,
+            methods, overridingMethods);
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Failed to write injection plan for " + binaryName + ". Reason: " + e, type);
+    }
+  }
+
+  protected void writePlan(PrintWriter out, String packageName, String planSimpleName,
+      String binaryName, long fingerprint, List<VariableElement> fields,
+      List<ExecutableElement> methods, List<ExecutableElement> overridingMethods) {
+    if (packageName.length() > 0) {
+      out.println("package " + packageName + ";");
+      out.println();
+    }
+    out.println("/** The injection plan of " + binaryName + " generated by "
+        + getClass().getName() + " */");
+    out.println("public final class " + planSimpleName + " implements " + PLAN_INTERFACE + " {");
+
+    out.println("  public String[] getAnnotationTypeNames() {");
+    out.println("    return new String[] {");
+    for (String name : annotationTypeNames) {
+      out.println("        \"" + name + "\",");
+    }
+    out.println("    };");
+    out.println("  }");
+    out.println();
+
+    out.println("  public long getFingerprint() {");
+    out.println("    return " + fingerprint + "L;");
+    out.println("  }");
+    out.println();
+
+    out.println("  public java.lang.reflect.Field[] getAnnotatedFields(Class<?> type)");
+    out.println("      throws NoSuchFieldException {");
+    out.println("    return new java.lang.reflect.Field[] {");
+    for (VariableElement field : fields) {
+      out.println("        type.getDeclaredField(\"" + field.getSimpleName() + "\"),");
+    }
+    out.println("    };");
+    out.println("  }");
+    out.println();
+
+    writeMethods(out, "getAnnotatedMethods", methods);
+    out.println();
+    writeMethods(out, "getOverridingMethods", overridingMethods);
+    out.println("}");
+  }
+
+  protected void writeMethods(PrintWriter out, String accessor, List<ExecutableElement> methods) {
+    out.println("  public java.lang.reflect.Method[] " + accessor + "(Class<?> type)");
+    out.println("      throws NoSuchMethodException {");
+    out.println("    return new java.lang.reflect.Method[] {");
+    for (ExecutableElement method : methods) {
+      StringBuilder buffer = new StringBuilder();
+      for (VariableElement parameter : method.getParameters()) {
+        if (buffer.length() > 0) {
+          buffer.append(", ");
+        }
+        buffer.append(classLiteral(types.erasure(parameter.asType())));
+      }
+      out.println("        type.getDeclaredMethod(\"" + method.getSimpleName()
+          + "\", new Class<?>[] {" + buffer + "}),");
+    }
+    out.println("    };");
+    out.println("  }");
+  }
+
+  /**
+   * Returns the fingerprint of the members declared on the type, which must be calculated in the
+   * same way as <code>InjectionPlans.getFingerprint()</code> calculates it from the loaded class:
+   * the 64 bit FNV-1a hash of the sorted descriptions of the annotated fields and of all of the
+   * methods, each followed by the annotations of the plan it is annotated with
+   */
+  protected long getFingerprint(TypeElement type) {
+    Set<String> members = new TreeSet<String>();
+    for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      String annotations = getAnnotationNames(field);
+      if (annotations.length() > 0) {
+        members.add("field " + field.getSimpleName() + annotations);
+      }
+    }
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      StringBuilder buffer = new StringBuilder("method ").append(method.getSimpleName());
+      buffer.append('(');
+      for (VariableElement parameter : method.getParameters()) {
+        if (buffer.charAt(buffer.length() - 1) != '(') {
+          buffer.append(',');
+        }
+        buffer.append(getTypeName(types.erasure(parameter.asType())));
+      }
+      buffer.append(')').append(getAnnotationNames(method));
+      members.add(buffer.toString());
+    }
+    long hash = FNV_OFFSET_BASIS;
+    for (String member : members) {
+      for (int i = 0, length = member.length(); i < length; i++) {
+        hash = (hash ^ member.charAt(i)) * FNV_PRIME;
+      }
+      hash = (hash ^ '\n') * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /** Returns the sorted names of the annotations of the plan on the element, each after " @" */
+  protected String getAnnotationNames(Element element) {
+    Set<String> names = new TreeSet<String>();
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+      String name = annotationType.getQualifiedName().toString();
+      if (annotationTypeNames.contains(name)) {
+        names.add(name);
+      }
+    }
+    StringBuilder buffer = new StringBuilder();
+    for (String name : names) {
+      buffer.append(" @").append(name);
+    }
+    return buffer.toString();
+  }
+
+  /** Returns the canonical name of the erased type as returned by its class at runtime */
+  protected String getTypeName(TypeMirror type) {
+    if (type.getKind() == TypeKind.ARRAY) {
+      return getTypeName(((ArrayType) type).getComponentType()) + "[]";
+    }
+    if (type.getKind() == TypeKind.DECLARED) {
+      return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+    }
+    return type.toString();
+  }
+
+  /** Returns true if the element is annotated with one of the annotations of the plan */
+  protected boolean isAnnotated(Element element) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+      if (annotationTypeNames.contains(annotationType.getQualifiedName().toString())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the method has the same name and erased parameter types as an annotated method
+   * declared on one of the super classes of the given type, in which case it hides that method
+   */
+  protected boolean overridesAnnotatedMethod(TypeElement type, ExecutableElement method) {
+    TypeMirror superclass = type.getSuperclass();
+    while (superclass.getKind() == TypeKind.DECLARED) {
+      TypeElement superType = (TypeElement) ((DeclaredType) superclass).asElement();
+      for (ExecutableElement superMethod : ElementFilter
+          .methodsIn(superType.getEnclosedElements())) {
+        if (isAnnotated(superMethod) && hasSameSignature(method, superMethod)) {
+          return true;
+        }
+      }
+      superclass = superType.getSuperclass();
+    }
+    return false;
+  }
+
+  protected boolean hasSameSignature(ExecutableElement method, ExecutableElement other) {
+    if (!method.getSimpleName().equals(other.getSimpleName())) {
+      return false;
+    }
+    List<? extends VariableElement> parameters = method.getParameters();
+    List<? extends VariableElement> otherParameters = other.getParameters();
+    if (parameters.size() != otherParameters.size()) {
+      return false;
+    }
+    for (int i = 0, size = parameters.size(); i < size; i++) {
+      TypeMirror type = types.erasure(parameters.get(i).asType());
+      TypeMirror otherType = types.erasure(otherParameters.get(i).asType());
+      if (!types.isSameType(type, otherType)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns true if the erased type can be referred to from a class in the given package */
+  protected boolean isAccessible(TypeMirror type, PackageElement packageElement) {
+    if (type.getKind() == TypeKind.ARRAY) {
+      return isAccessible(((ArrayType) type).getComponentType(), packageElement);
+    }
+    if (type.getKind() != TypeKind.DECLARED) {
+      return type.getKind().isPrimitive();
+    }
+    Element element = ((DeclaredType) type).asElement();
+    boolean samePackage = elements.getPackageOf(element).equals(packageElement);
+    while (element != null && element.getKind() != ElementKind.PACKAGE) {
+      Set<Modifier> modifiers = element.getModifiers();
+      if (modifiers.contains(Modifier.PRIVATE)
+          || (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+        return false;
+      }
+      element = element.getEnclosingElement();
+    }
+    return true;
+  }
+
+  protected String classLiteral(TypeMirror type) {
+    if (type.getKind() == TypeKind.ARRAY) {
+      String componentLiteral = classLiteral(((ArrayType) type).getComponentType());
+      return componentLiteral.substring(0, componentLiteral.length() - ".class".length())
+          + "[].class";
+    }
+    if (type.getKind() == TypeKind.DECLARED) {
+      return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName() + ".class";
+    }
+    return type + ".class";
+  }
+}
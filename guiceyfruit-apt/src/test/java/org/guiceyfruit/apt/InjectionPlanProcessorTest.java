@@ -0,0 +1,175 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.apt;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import junit.framework.TestCase;
+import org.guiceyfruit.jsr250.Jsr250Module;
+import org.guiceyfruit.support.InjectionPlans;
+import org.guiceyfruit.support.InjectionPlans.ClassPlan;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+
+/** @version $Revision: 1.1 $ */
+public class InjectionPlanProcessorTest extends TestCase {
+  private static final String BASE = "package example;\n"
+      + "import javax.annotation.*;\n"
+      + "public class Base {\n"
+      + "  @Resource public String name;\n"
+      + "  public String value;\n"
+      + "  public String hidden;\n"
+      + "  public boolean started;\n"
+      + "  @Resource public void setValue(String value) { this.value = value; }\n"
+      + "  @Resource public void setHidden(String hidden) { this.hidden = hidden; }\n"
+      + "  @PostConstruct public void start() { started = true; }\n"
+      + "}\n";
+
+  private static final String SUB = "package example;\n"
+      + "import javax.annotation.*;\n"
+      + "public class Sub extends Base {\n"
+      + "  @Resource public String other;\n"
+      + "  public void setHidden(String hidden) { }\n"
+      + "}\n";
+
+  private static final String SECRET = "package example;\n"
+      + "import javax.annotation.*;\n"
+      + "public class Secretive {\n"
+      + "  @Resource void setSecret(Secret secret) { }\n"
+      + "  private static class Secret { }\n"
+      + "}\n";
+
+  private static final String PLANNED = "package example;\n"
+      + "import javax.annotation.*;\n"
+      + "public class Planned {\n"
+      + "  @Resource public String name;\n"
+      + "  public String unplanned;\n"
+      + "}\n";
+
+  // the same class recompiled without regenerating its plan, so its stale plan must be ignored
+  private static final String PLANNED_CHANGED = "package example;\n"
+      + "import javax.annotation.*;\n"
+      + "public class Planned {\n"
+      + "  @Resource public String name;\n"
+      + "  @Resource public String unplanned;\n"
+      + "}\n";
+
+  private ClassLoader classLoader;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertNotNull("No system java compiler available", compiler);
+
+    File outputDir = new File("target/apt-test-classes");
+    outputDir.mkdirs();
+
+    List<String> options = Arrays.asList("-d", outputDir.getPath(), "-s", outputDir.getPath(),
+        "-classpath", System.getProperty("java.class.path"));
+    List<JavaFileObject> sources = Arrays.asList(source("example.Base", BASE),
+        source("example.Sub", SUB), source("example.Secretive", SECRET),
+        source("example.Planned", PLANNED));
+
+    JavaCompiler.CompilationTask task = compiler.getTask(null, null, null, options, null,
+        sources);
+    task.setProcessors(Arrays.asList(new InjectionPlanProcessor()));
+    assertTrue("Compilation failed", task.call());
+
+    List<String> noProcessorOptions = Arrays.asList("-d", outputDir.getPath(), "-proc:none",
+        "-classpath", System.getProperty("java.class.path"));
+    task = compiler.getTask(null, null, null, noProcessorOptions, null,
+        Arrays.asList(source("example.Planned", PLANNED_CHANGED)));
+    assertTrue("Compilation failed", task.call());
+
+    classLoader = new URLClassLoader(new URL[] {outputDir.toURI().toURL()},
+        getClass().getClassLoader());
+  }
+
+  public void testGeneratesPlans() throws Exception {
+    ClassPlan basePlan = InjectionPlans.getPlan(classLoader.loadClass("example.Base"));
+    assertNotNull("Should have a plan for Base", basePlan);
+    assertEquals("fields", 1, basePlan.getAnnotatedFields().length);
+    assertEquals("methods", 3, basePlan.getAnnotatedMethods().length);
+    assertTrue("covers", basePlan.covers(Arrays.asList("javax.annotation.Resource",
+        "javax.annotation.PostConstruct")));
+
+    ClassPlan subPlan = InjectionPlans.getPlan(classLoader.loadClass("example.Sub"));
+    assertNotNull("Should have a plan for Sub", subPlan);
+    assertEquals("fields", 1, subPlan.getAnnotatedFields().length);
+    Method[] overriding = subPlan.getOverridingMethods();
+    assertEquals("overriding methods", 1, overriding.length);
+    assertEquals("overriding method", "setHidden", overriding[0].getName());
+
+    assertNull("Should not have a plan when parameter types are not accessible",
+        InjectionPlans.getPlan(classLoader.loadClass("example.Secretive")));
+    assertNull("Should ignore a plan which is out of date with its class",
+        InjectionPlans.getPlan(classLoader.loadClass("example.Planned")));
+  }
+
+  public void testInjectsUsingPlans() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module(), new AbstractModule() {
+      protected void configure() {
+        bind(String.class).annotatedWith(Names.named("name")).toInstance("a");
+        bind(String.class).annotatedWith(Names.named("setValue")).toInstance("b");
+        bind(String.class).annotatedWith(Names.named("setHidden")).toInstance("c");
+        bind(String.class).annotatedWith(Names.named("other")).toInstance("d");
+        bind(String.class).annotatedWith(Names.named("unplanned")).toInstance("e");
+      }
+    });
+
+    Class<?> type = classLoader.loadClass("example.Sub");
+    Object bean = injector.getInstance(type);
+    assertEquals("name", "a", type.getField("name").get(bean));
+    assertEquals("value", "b", type.getField("value").get(bean));
+    assertEquals("hidden", null, type.getField("hidden").get(bean));
+    assertEquals("other", "d", type.getField("other").get(bean));
+
+    Class<?> planned = classLoader.loadClass("example.Planned");
+    Object plannedBean = injector.getInstance(planned);
+    assertEquals("name", "a", planned.getField("name").get(plannedBean));
+    assertEquals("Should have scanned the class rather than using its stale plan", "e",
+        planned.getField("unplanned").get(plannedBean));
+  }
+
+  protected static JavaFileObject source(String className, final String content) {
+    URI uri = URI.create("string:///" + className.replace('.', '/') + ".java");
+    return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+}
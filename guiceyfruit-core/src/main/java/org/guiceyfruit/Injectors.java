@@ -19,25 +19,42 @@
 package org.guiceyfruit;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import org.guiceyfruit.jndi.GuiceInitialContextFactory;
 import org.guiceyfruit.jndi.internal.Classes;
 import org.guiceyfruit.support.CloseErrors;
 import org.guiceyfruit.support.CloseFailedException;
 import org.guiceyfruit.support.Closer;
-import org.guiceyfruit.support.Closers;
 import org.guiceyfruit.support.CompositeCloser;
 import org.guiceyfruit.support.HasScopeAnnotation;
+import org.guiceyfruit.support.ProvisionTracker;
+import org.guiceyfruit.support.internal.BindingIndex;
 import org.guiceyfruit.support.internal.CloseErrorsImpl;
-
+import org.guiceyfruit.support.internal.CloseGraph;
+import org.guiceyfruit.support.internal.ProvisionedBindings;
+import org.guiceyfruit.util.CloseableScope;
+import org.guiceyfruit.util.ConcurrentSingleton;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binding;
@@ -46,19 +63,40 @@ import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
 import com.google.inject.Scope;
 import com.google.inject.Singleton;
+import com.google.inject.Stage;
 import com.google.inject.TypeLiteral;
 import com.google.inject.internal.BindingImpl;
 import com.google.inject.internal.Scoping;
 import com.google.inject.matcher.Matcher;
 import com.google.inject.name.Names;
+import com.google.inject.spi.ConstructorBinding;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderKeyBinding;
 import com.google.inject.util.Modules;
 
 /** @version $Revision: 1.1 $ */
 public class Injectors {
   public static final String MODULE_CLASS_NAMES = "org.guiceyfruit.modules";
 
+  private static final long CACHE_EXPIRY_MINUTES = 5;
+
+  /**
+   * The closers refer back to their injector so they are also expired once unused for a while, in
+   * case the injector is never closed
+   */
+  private static final LoadingCache<Injector, Optional<Closer>> CLOSERS = CacheBuilder
+      .newBuilder().weakKeys().softValues().expireAfterAccess(CACHE_EXPIRY_MINUTES,
+          TimeUnit.MINUTES).build(new CacheLoader<Injector, Optional<Closer>>() {
+        public Optional<Closer> load(Injector injector) {
+          Set<Closer> closers = getInstancesOf(injector, Closer.class);
+          return Optional.fromNullable(CompositeCloser.newInstance(closers));
+        }
+      });
+
   /**
    * Creates an injector from the given properties, loading any modules define by the {@link
    * #MODULE_CLASS_NAMES} property value (space separated) along with any other modules passed as an
@@ -117,18 +155,12 @@ public class Injectors {
    * @return a set of objects returned from this injector
    */
   public static <T> Set<T> getInstancesOf(Injector injector, Class<T> baseClass) {
-    Set<T> answer = Sets.newHashSet();
-    Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
-    for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Class<?> keyType = getKeyType(key);
-      if (keyType != null && baseClass.isAssignableFrom(keyType)) {
-        Binding<?> binding = entry.getValue();
-        Object value = binding.getProvider().get();
-        if (value != null) {
-          T castValue = baseClass.cast(value);
-          answer.add(castValue);
-        }
+    Set<T> answer = Sets.newLinkedHashSet();
+    for (Binding<?> binding : BindingIndex.getIndex(injector).getBindings(baseClass)) {
+      Object value = binding.getProvider().get();
+      if (value != null) {
+        T castValue = baseClass.cast(value);
+        answer.add(castValue);
       }
     }
     return answer;
@@ -141,15 +173,133 @@ public class Injectors {
    * @return a set of objects returned from this injector
    */
   public static <T> Set<T> getInstancesOf(Injector injector, Matcher<Class> matcher) {
-    Set<T> answer = Sets.newHashSet();
-    Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
-    for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Class<?> keyType = getKeyType(key);
-      if (keyType != null && matcher.matches(keyType)) {
-        Binding<?> binding = entry.getValue();
-        Object value = binding.getProvider().get();
-        answer.add((T) value);
+    Set<T> answer = Sets.newLinkedHashSet();
+    for (Binding<?> binding : BindingIndex.getIndex(injector).getBindings(matcher)) {
+      Object value = binding.getProvider().get();
+      answer.add((T) value);
+    }
+    return answer;
+  }
+
+  /**
+   * Returns a lazy iteration of all instances of the given base type. Each object is only
+   * provisioned when the iterator reaches its binding so callers which only require the first
+   * matching objects can stop early.
+   *
+   * @param baseClass the base type of objects required
+   * @param <T> the base type
+   * @return the objects returned from this injector
+   */
+  public static <T> Iterable<T> iterateInstancesOf(Injector injector, final Class<T> baseClass) {
+    List<Binding<?>> bindings = BindingIndex.getIndex(injector).getBindings(baseClass);
+    return Iterables.filter(Iterables.transform(bindings, new Function<Binding<?>, T>() {
+      public T apply(Binding<?> binding) {
+        return baseClass.cast(binding.getProvider().get());
+      }
+    }), Predicates.notNull());
+  }
+
+  /**
+   * Returns a lazy iteration of all instances matching the given matcher. Each object is only
+   * provisioned when the iterator reaches its binding so callers which only require the first
+   * matching objects can stop early.
+   *
+   * @param matcher matches the types to return instances
+   * @return the objects returned from this injector
+   */
+  public static <T> Iterable<T> iterateInstancesOf(Injector injector, Matcher<Class> matcher) {
+    List<Binding<?>> bindings = BindingIndex.getIndex(injector).getBindings(matcher);
+    return Iterables.transform(bindings, new Function<Binding<?>, T>() {
+      public T apply(Binding<?> binding) {
+        return (T) binding.getProvider().get();
+      }
+    });
+  }
+
+  /**
+   * Returns a collection of all instances of the given base type, provisioning each of them
+   * concurrently using the given executor
+   *
+   * Guice creates singletons while holding a lock shared by all injectors, so singletons are still
+   * created one at a time and only unscoped objects or objects in other scopes, such as {@link
+   * ConcurrentSingleton}, are created in parallel. A singleton must therefore not be created by
+   * calling this method, nor wait for another thread which creates a singleton, as it deadlocks.
+   *
+   * @param baseClass the base type of objects required
+   * @param executor the executor used to create the objects
+   * @param <T> the base type
+   * @return a set of objects returned from this injector
+   */
+  public static <T> Set<T> getInstancesOf(Injector injector, Class<T> baseClass,
+      Executor executor) {
+    List<Binding<?>> bindings = BindingIndex.getIndex(injector).getBindings(baseClass);
+    Set<T> answer = Sets.newLinkedHashSet();
+    for (Object value : provision(bindings, executor)) {
+      if (value != null) {
+        answer.add(baseClass.cast(value));
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Returns a collection of all instances matching the given matcher, provisioning each of them
+   * concurrently using the given executor. Singletons are created one at a time and can deadlock
+   * as described in {@link #getInstancesOf(Injector, Class, Executor)}.
+   *
+   * @param matcher matches the types to return instances
+   * @param executor the executor used to create the objects
+   * @return a set of objects returned from this injector
+   */
+  public static <T> Set<T> getInstancesOf(Injector injector, Matcher<Class> matcher,
+      Executor executor) {
+    List<Binding<?>> bindings = BindingIndex.getIndex(injector).getBindings(matcher);
+    Set<T> answer = Sets.newLinkedHashSet();
+    for (Object value : provision(bindings, executor)) {
+      answer.add((T) value);
+    }
+    return answer;
+  }
+
+  /**
+   * Provisions the objects of the bindings concurrently using the executor, returning them in the
+   * order of the bindings once they have all been created
+   */
+  private static List<Object> provision(List<Binding<?>> bindings, Executor executor) {
+    List<FutureTask<Object>> tasks = Lists.newArrayListWithCapacity(bindings.size());
+    for (final Binding<?> binding : bindings) {
+      FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+        public Object call() {
+          return binding.getProvider().get();
+        }
+      });
+      tasks.add(task);
+      executor.execute(task);
+    }
+
+    List<Object> answer = Lists.newArrayListWithCapacity(tasks.size());
+    try {
+      for (FutureTask<Object> task : tasks) {
+        answer.add(task.get());
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProvisionException("Interrupted while waiting for objects to be created", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new ProvisionException("Failed to create object. Reason: " + cause, cause);
+    }
+    finally {
+      for (FutureTask<Object> task : tasks) {
+        task.cancel(false);
       }
     }
     return answer;
@@ -162,15 +312,9 @@ public class Injectors {
    * @return a set of objects returned from this injector
    */
   public static <T> Set<Provider<T>> getProvidersOf(Injector injector, Matcher<Class> matcher) {
-    Set<Provider<T>> answer = Sets.newHashSet();
-    Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
-    for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Class<?> keyType = getKeyType(key);
-      if (keyType != null && matcher.matches(keyType)) {
-        Binding<?> binding = entry.getValue();
-        answer.add((Provider<T>) binding.getProvider());
-      }
+    Set<Provider<T>> answer = Sets.newLinkedHashSet();
+    for (Binding<?> binding : BindingIndex.getIndex(injector).getBindings(matcher)) {
+      answer.add((Provider<T>) binding.getProvider());
     }
     return answer;
   }
@@ -183,27 +327,21 @@ public class Injectors {
    * @return a set of objects returned from this injector
    */
   public static <T> Set<Provider<T>> getProvidersOf(Injector injector, Class<T> baseClass) {
-    Set<Provider<T>> answer = Sets.newHashSet();
-    Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
-    for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Class<?> keyType = getKeyType(key);
-      if (keyType != null && baseClass.isAssignableFrom(keyType)) {
-        Binding<?> binding = entry.getValue();
-        answer.add((Provider<T>) binding.getProvider());
-      }
+    Set<Provider<T>> answer = Sets.newLinkedHashSet();
+    for (Binding<?> binding : BindingIndex.getIndex(injector).getBindings(baseClass)) {
+      answer.add((Provider<T>) binding.getProvider());
     }
     return answer;
   }
 
   /** Returns true if a binding exists for the given matcher */
   public static boolean hasBinding(Injector injector, Matcher<Class> matcher) {
-    return !getBindingsOf(injector, matcher).isEmpty();
+    return !BindingIndex.getIndex(injector).getBindings(matcher).isEmpty();
   }
 
   /** Returns true if a binding exists for the given base class */
   public static boolean hasBinding(Injector injector, Class<?> baseClass) {
-    return !getBindingsOf(injector, baseClass).isEmpty();
+    return !BindingIndex.getIndex(injector).getBindings(baseClass).isEmpty();
   }
 
   /** Returns true if a binding exists for the given key */
@@ -226,16 +364,7 @@ public class Injectors {
    * @return a set of objects returned from this injector
    */
   public static Set<Binding<?>> getBindingsOf(Injector injector, Matcher<Class> matcher) {
-    Set<Binding<?>> answer = Sets.newHashSet();
-    Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
-    for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Class<?> keyType = getKeyType(key);
-      if (keyType != null && matcher.matches(keyType)) {
-        answer.add(entry.getValue());
-      }
-    }
-    return answer;
+    return Sets.newLinkedHashSet(BindingIndex.getIndex(injector).getBindings(matcher));
   }
 
   /**
@@ -245,27 +374,23 @@ public class Injectors {
    * @return a set of objects returned from this injector
    */
   public static Set<Binding<?>> getBindingsOf(Injector injector, Class<?> baseClass) {
-    Set<Binding<?>> answer = Sets.newHashSet();
-    Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
-    for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Class<?> keyType = getKeyType(key);
-      if (keyType != null && baseClass.isAssignableFrom(keyType)) {
-        answer.add(entry.getValue());
-      }
-    }
-    return answer;
+    return Sets.newLinkedHashSet(BindingIndex.getIndex(injector).getBindings(baseClass));
   }
 
-  /** Returns the key type of the given key */
+  /**
+   * Returns a collection of all bindings of the given generic base type, such as
+   * <code>Provider&lt;String&gt;</code>
+   *
+   * @param baseType the generic base type of objects required
+   * @return a set of objects returned from this injector
+   */
+  public static Set<Binding<?>> getBindingsOf(Injector injector, TypeLiteral<?> baseType) {
+    return Sets.newLinkedHashSet(BindingIndex.getIndex(injector).getBindings(baseType));
+  }
+
+  /** Returns the key type of the given key, which is the raw type for parameterized keys */
   public static <T> Class<?> getKeyType(Key<?> key) {
-    Class<?> keyType = null;
-    TypeLiteral<?> typeLiteral = key.getTypeLiteral();
-    Type type = typeLiteral.getType();
-    if (type instanceof Class) {
-      keyType = (Class<?>) type;
-    }
-    return keyType;
+    return key.getTypeLiteral().getRawType();
   }
 
   protected static Module loadModule(String moduleName)
@@ -308,7 +433,17 @@ public class Injectors {
    * implementations
    */
   public static void close(Injector injector, CloseErrors errors) throws CloseFailedException {
-    close(injector, Singleton.class, errors);
+    try {
+      CloseableScope scope = getCloseableScope(injector, ConcurrentSingleton.class);
+      if (scope != null) {
+        scope.close(injector, errors);
+      }
+      close(injector, Singleton.class, errors);
+    }
+    finally {
+      CLOSERS.invalidate(injector);
+      BindingIndex.release(injector);
+    }
   }
 
   /**
@@ -322,66 +457,126 @@ public class Injectors {
 
   /**
    * Closes objects within the given scope using the currently registered {@link Closer}
-   * implementations
+   * implementations. Objects are closed before any of the objects they depend on.
    */
   public static void close(Injector injector, Class<? extends Annotation> scopeAnnotationToClose,
       CloseErrors errors) throws CloseFailedException {
-    Set<Closer> closers = getInstancesOf(injector, Closer.class);
-    Closer closer = CompositeCloser.newInstance(closers);
-    if (closer == null) {
+    CloseableScope scope = getCloseableScope(injector, scopeAnnotationToClose);
+    if (scope != null) {
+      scope.close(injector, errors);
+      errors.throwIfNecessary();
       return;
     }
-
-    Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
-    for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Binding<?> binding = entry.getValue();
-      closeBinding(key, binding, scopeAnnotationToClose, closer, errors);
+    Closer closer = getCloser(injector);
+    if (closer == null) {
+      return;
     }
-    
-    tryCloseJitBindings(closer, injector, scopeAnnotationToClose, errors);
+    createCloseGraph(injector, scopeAnnotationToClose).close(closer, errors);
     errors.throwIfNecessary();
   }
 
-  private static void tryCloseJitBindings(Closer closer, Injector injector,
-      Class<? extends Annotation> scopeAnnotationToClose, CloseErrors errors) {
-    Class<? extends Injector> type = injector.getClass();
-    Field field;
-    try {
-      field = type.getDeclaredField("jitBindings");
-      field.setAccessible(true);
-      Object bindings = field.get(injector);
-      if (bindings != null) {
-        if (bindings instanceof Map) {
-          Map<Key<?>, BindingImpl<?>> map = (Map<Key<?>, BindingImpl<?>>) bindings;
-          Set<Entry<Key<?>, BindingImpl<?>>> entries = map.entrySet();
-          for (Entry<Key<?>, BindingImpl<?>> entry : entries) {
-            closeBinding(entry.getKey(), entry.getValue(), scopeAnnotationToClose, closer, errors);
-          }
-        }
-      }
-    }
-    catch (NoSuchFieldException e) {
-      // ignore - Guice has refactored so we can't access the jit bindings
-      // System.out.println("No such field! " + e);
+  /**
+   * Closes objects within the given scope using the currently registered {@link Closer}
+   * implementations. Objects are closed before any of the objects they depend on; objects which
+   * do not depend on each other are closed concurrently using the given executor, which should
+   * typically have a bounded number of threads.
+   *
+   * Any object which takes longer than the timeout to close is reported as a close error.
+   */
+  public static void close(Injector injector, Class<? extends Annotation> scopeAnnotationToClose,
+      CloseErrors errors, ExecutorService executor, long timeout, TimeUnit unit)
+      throws CloseFailedException {
+    CloseableScope scope = getCloseableScope(injector, scopeAnnotationToClose);
+    if (scope != null) {
+      scope.close(injector, errors);
+      errors.throwIfNecessary();
+      return;
     }
-    catch (IllegalAccessException e) {
-      // ignore - Guice has refactored so we can't access the jit bindings
-      //System.out.println("Failed to access field: " + field + ". Reason: " + e);
+    Closer closer = getCloser(injector);
+    if (closer == null) {
+      return;
     }
+    createCloseGraph(injector, scopeAnnotationToClose).close(closer, errors, executor, timeout,
+        unit);
+    errors.throwIfNecessary();
   }
 
-  private static void closeBinding(Key<?> key, Binding<?> binding,
-      Class<? extends Annotation> scopeAnnotationToClose, Closer closer, CloseErrors errors) {
-      Provider<?> provider = binding.getProvider();
+  /**
+   * Returns the scope bound to the scope annotation if it is a {@link CloseableScope}, which knows
+   * the objects it has created, otherwise null
+   */
+  private static CloseableScope getCloseableScope(Injector injector,
+      Class<? extends Annotation> scopeAnnotation) {
+    Scope scope = injector.getScopeBindings().get(scopeAnnotation);
+    return scope instanceof CloseableScope ? (CloseableScope) scope : null;
+  }
+
+  /**
+   * Returns the closer for the injector, combining all of the {@link Closer} instances bound in the
+   * injector, or null if there are none. The closer is only resolved once per injector, until the
+   * injector is closed or the closer has not been used for a few minutes.
+   */
+  public static Closer getCloser(Injector injector) {
+    return CLOSERS.getUnchecked(injector).orNull();
+  }
 
+  private static CloseGraph createCloseGraph(Injector injector,
+      Class<? extends Annotation> scopeAnnotationToClose) {
+    Set<ProvisionTracker> trackers = getInstancesOf(injector, ProvisionTracker.class);
+    ProvisionedBindings provisioned = new ProvisionedBindings(injector, trackers);
+    boolean eager = injector.getInstance(Stage.class) == Stage.PRODUCTION;
+
+    // the bindings include the just in time bindings created by the injector
+    Map<Key<?>, Binding<?>> bindingsToClose = Maps.newLinkedHashMap();
+    Set<Entry<Key<?>, Binding<?>>> entries = injector.getAllBindings().entrySet();
+    for (Entry<Key<?>, Binding<?>> entry : entries) {
+      Binding<?> binding = entry.getValue();
       Class<? extends Annotation> scopeAnnotation = getScopeAnnotation(binding);
       if ((scopeAnnotation != null) && scopeAnnotation.equals(scopeAnnotationToClose)) {
-          Object value = provider.get();
-          if (value != null) {
-              Closers.close(key, value, closer, errors);
-          }
+        if (trackers.isEmpty() || isInstantiated(injector, binding, provisioned, eager)) {
+          bindingsToClose.put(entry.getKey(), binding);
+        }
+      }
+    }
+    return new CloseGraph(injector, bindingsToClose);
+  }
+
+  /**
+   * Returns true if the scoped object of the binding has already been created so that getting it
+   * from the binding's provider will not create a new object just to close it.
+   *
+   * Objects created by provider instances, such as <code>@Provides</code> methods, cannot be
+   * tracked so they are assumed to have been created.
+   */
+  private static boolean isInstantiated(Injector injector, Binding<?> binding,
+      ProvisionedBindings provisioned, boolean eager) {
+    if (binding instanceof InstanceBinding) {
+      return true;
+    }
+    if (binding instanceof BindingImpl
+        && ((BindingImpl<?>) binding).getScoping() == Scoping.EAGER_SINGLETON) {
+      return true;
+    }
+    if (eager && Singleton.class.equals(getScopeAnnotation(binding))) {
+      return true;
+    }
+    if (binding instanceof ConstructorBinding) {
+      return provisioned.isProvisioned(binding);
+    }
+    if (binding instanceof LinkedKeyBinding) {
+      if (provisioned.isConstructed(binding)) {
+        // a linked binding may be scoped separately from the binding it links to
+        return provisioned.isProvisioned(binding);
       }
+      Key<?> targetKey = ((LinkedKeyBinding<?>) binding).getLinkedKey();
+      return isInstantiated(injector, injector.getBinding(targetKey), provisioned, false);
+    }
+    if (binding instanceof ProviderKeyBinding) {
+      // the provider is only created when the first object is requested
+      Key<?> providerKey = ((ProviderKeyBinding<?>) binding).getProviderKey();
+      return isInstantiated(injector, injector.getBinding(providerKey), provisioned, false);
+    }
+    return true;
   }
 
   /** Returns the scope annotation for the given binding or null if there is no scope */
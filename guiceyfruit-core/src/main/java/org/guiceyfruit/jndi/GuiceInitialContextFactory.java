@@ -16,6 +16,13 @@
 
 package org.guiceyfruit.jndi;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
@@ -27,31 +34,117 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.spi.InitialContextFactory;
 import org.guiceyfruit.Injectors;
 import org.guiceyfruit.jndi.internal.JndiContext;
+import org.guiceyfruit.support.CloseFailedException;
 
 /**
  * A factory of the Guice JNDI provider which creates an injector from all the available modules
  * specified in the space separated {@link Injectors#MODULE_CLASS_NAMES} property. <p/> For more
  * details of how this JNDI provider works see <a href="http://code.google.com/p/camel-extra/wiki/GuiceJndi">the
  * wiki documentation</a>
+ * <p/>
+ * The injector and context are shared by all of the contexts created with the same environment
+ * apart from its {@link Context#SECURITY_PRINCIPAL} and {@link Context#SECURITY_CREDENTIALS},
+ * which are therefore not bound as named properties in the injector, so a module can not inject
+ * them using <code>@Named(Context.SECURITY_PRINCIPAL)</code>. The injector is closed once its
+ * context is discarded.
  *
  * @version $Revision: 656978 $
  */
 public class GuiceInitialContextFactory implements InitialContextFactory {
   public static final String NAME_PREFIX = "org.guiceyfruit.jndi/";
 
+  /** The maximum number of distinct environments whose injectors and contexts are shared */
+  public static final int MAXIMUM_CONTEXTS = 32;
+
+  private static final Logger LOG = Logger.getLogger(GuiceInitialContextFactory.class.getName());
+
+  /** The entries of an environment which are left out of the shared injector and context */
+  private static final Set<String> PRIVATE_KEYS = ImmutableSet.of(Context.SECURITY_PRINCIPAL,
+      Context.SECURITY_CREDENTIALS);
+
+  private static final LoadingCache<Map<Object, Object>, SharedContext> CONTEXTS = CacheBuilder
+      .newBuilder().maximumSize(MAXIMUM_CONTEXTS)
+      .removalListener(new RemovalListener<Map<Object, Object>, SharedContext>() {
+        public void onRemoval(RemovalNotification<Map<Object, Object>, SharedContext> removal) {
+          removal.getValue().close();
+        }
+      })
+      .build(new CacheLoader<Map<Object, Object>, SharedContext>() {
+        public SharedContext load(Map<Object, Object> fingerprint) throws Exception {
+          return createContext(new Hashtable<Object, Object>(fingerprint));
+        }
+      });
+
   /**
    * Creates a new context with the given environment.
    *
+   * The injector and the JNDI bindings are only created once for each distinct environment; each
+   * new context is a view of the shared frozen context until {@link #invalidate(Hashtable)} or
+   * {@link #invalidateAll()} is called, or until more than {@link #MAXIMUM_CONTEXTS} environments
+   * are in use, when the shared injector is closed. The {@link Context#SECURITY_PRINCIPAL} and
+   * {@link Context#SECURITY_CREDENTIALS} of the environment are only available from the view, not
+   * from the shared injector.
+   *
    * @param environment the environment, must not be <tt>null</tt>
    * @return the created context.
    * @throws NamingException is thrown if creation failed.
    */
   public Context getInitialContext(final Hashtable environment) throws NamingException {
+    try {
+      return CONTEXTS.get(getFingerprint(environment)).context.createView(environment);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof NamingException) {
+        throw (NamingException) cause;
+      }
+      NamingException exception = new NamingException(cause.getMessage());
+      exception.initCause(cause);
+      throw exception;
+    }
+  }
+
+  /**
+   * Discards and closes the injector and context created for the given environment so that the
+   * next context created with the environment creates a new injector
+   */
+  public static void invalidate(Hashtable environment) {
+    CONTEXTS.invalidate(getFingerprint(environment));
+  }
+
+  /**
+   * Discards and closes all of the injectors and contexts created so that the next context created
+   * creates a new injector
+   */
+  public static void invalidateAll() {
+    CONTEXTS.invalidateAll();
+  }
+
+  /**
+   * Returns the key of the shared context for the environment. All of the entries are significant
+   * as they are all bound as named properties in the injector, apart from the credentials which
+   * are left out so that they are not kept in the shared injector or as a key of the cache.
+   */
+  private static Map<Object, Object> getFingerprint(Hashtable<?, ?> environment) {
+    ImmutableMap.Builder<Object, Object> builder = ImmutableMap.builder();
+    for (Entry<?, ?> entry : environment.entrySet()) {
+      if (!PRIVATE_KEYS.contains(entry.getKey())) {
+        builder.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return builder.build();
+  }
+
+  private static SharedContext createContext(final Hashtable<?, ?> environment)
+      throws NamingException {
     try {
       // lets avoid infinite recursion with a provider creating an InitialContext by binding the
       // singleton initial context into the injector
@@ -62,10 +155,19 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
             Injector injector;
 
             public Context get() {
-              JndiContext context = new JndiContext(environment);
               Properties jndiNames = createJndiNamesProperties(environment);
               try {
-                JndiBindings.bindInjectorAndBindings(context, injector, jndiNames);
+                JndiContext context;
+                if (isLazyBindings(environment)) {
+                  context = new JndiContext(environment,
+                      JndiBindings.createNameResolver(injector));
+                  JndiBindings.bindJndiNames(context, injector, jndiNames);
+                }
+                else {
+                  context = new JndiContext(environment);
+                  JndiBindings.bindInjectorAndBindings(context, injector, jndiNames);
+                }
+                context.freeze();
                 return context;
               }
               catch (NamingException e) {
@@ -75,7 +177,7 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
           }).in(Scopes.SINGLETON);
         }
       });
-      return injector.getInstance(Context.class);
+      return new SharedContext(injector, (JndiContext) injector.getInstance(Context.class));
     }
     catch (Exception e) {
       NamingException exception = new NamingException(e.getMessage());
@@ -84,16 +186,20 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
     }
   }
 
+  private static boolean isLazyBindings(Hashtable<?, ?> environment) {
+    Object value = environment.get(JndiBindings.LAZY_BINDINGS);
+    return value != null && Boolean.valueOf(value.toString());
+  }
+
   /**
    * Creates a properties object containing all of the values whose keys start with {@link
    * #NAME_PREFIX} with the prefix being removed on the key
    *
    * @return a properties object
    */
-  private Properties createJndiNamesProperties(Hashtable environment) {
-    Set<Map.Entry> set = environment.entrySet();
+  private static Properties createJndiNamesProperties(Hashtable<?, ?> environment) {
     Properties answer = new Properties();
-    for (Entry entry : set) {
+    for (Entry<?, ?> entry : environment.entrySet()) {
       String key = entry.getKey().toString();
       if (key.startsWith(NAME_PREFIX)) {
         String name = key.substring(NAME_PREFIX.length());
@@ -104,4 +210,25 @@ public class GuiceInitialContextFactory implements InitialContextFactory {
     return answer;
   }
 
+  /** The injector and frozen context shared by the contexts created with an environment */
+  private static class SharedContext {
+    private final Injector injector;
+    private final JndiContext context;
+
+    SharedContext(Injector injector, JndiContext context) {
+      this.injector = injector;
+      this.context = context;
+    }
+
+    /** Closes the injector, logging rather than throwing any failure as it is being discarded */
+    void close() {
+      try {
+        Injectors.close(injector);
+      }
+      catch (CloseFailedException e) {
+        LOG.log(Level.WARNING, "Failed to close the injector of a discarded JNDI context. Reason: "
+            + e, e);
+      }
+    }
+  }
 }
@@ -0,0 +1,130 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi;
+
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.guiceyfruit.jndi.internal.Classes;
+import org.guiceyfruit.jndi.internal.NameResolver;
+
+/**
+ * Resolves JNDI names to the providers of the bindings of an injector which
+ * {@link JndiBindings#bindInjectorAndBindings} would have bound them to.
+ *
+ * Names of classes and of {@link com.google.inject.name.Named} bindings are parsed into keys
+ * directly; the first time any other name is looked up the names of all of the bindings are
+ * indexed. The parents of the names, such as <code>class com.acme.Foo</code> for the name
+ * <code>class com.acme.Foo/name</code>, are indexed too so that they can be looked up as
+ * subcontexts, as they would have been bound.
+ *
+ * @version $Revision: 1.1 $
+ */
+class InjectorNameResolver implements NameResolver {
+  private final Injector injector;
+  private final ConcurrentMap<String, Key<?>> parsedKeys = new ConcurrentHashMap<String, Key<?>>();
+  private volatile Map<String, Key<?>> index;
+  private volatile Set<String> contextNames;
+
+  InjectorNameResolver(Injector injector) {
+    this.injector = injector;
+  }
+
+  public Object resolve(String name) {
+    Map<String, Key<?>> names = index;
+    Key<?> key = names != null ? names.get(name) : parsedKeys.get(name);
+    if (key == null && names == null) {
+      key = parseKey(name);
+      if (key != null) {
+        parsedKeys.putIfAbsent(name, key);
+      }
+      else {
+        key = getIndex().get(name);
+      }
+    }
+    if (key == null) {
+      return null;
+    }
+    return injector.getBindings().get(key).getProvider();
+  }
+
+  public boolean isContext(String name) {
+    getIndex();
+    return contextNames.contains(name);
+  }
+
+  /**
+   * Returns the key of a binding exported as the name of its class or, for named bindings, as
+   * <code>class com.acme.Foo/name</code> or null if the name is not of that form
+   */
+  private Key<?> parseKey(String name) {
+    String typeName = name;
+    Key<?> key;
+    int pos = name.indexOf('/');
+    if (pos > 0) {
+      int space = name.lastIndexOf(' ', pos);
+      if (space < 0) {
+        return null;
+      }
+      typeName = name.substring(space + 1, pos);
+    }
+    try {
+      Class<?> type = Classes.loadClass(typeName, InjectorNameResolver.class.getClassLoader());
+      key = pos > 0 ? Key.get(type, Names.named(name.substring(pos + 1))) : Key.get(type);
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+    catch (LinkageError e) {
+      return null;
+    }
+    if (injector.getBindings().containsKey(key) && name.equals(JndiBindings.getJndiName(key))) {
+      return key;
+    }
+    return null;
+  }
+
+  /** Returns the JNDI names of all of the exported bindings, creating the index if required */
+  private synchronized Map<String, Key<?>> getIndex() {
+    if (index == null) {
+      Map<String, Key<?>> answer = new HashMap<String, Key<?>>();
+      Set<String> parents = new HashSet<String>();
+      for (Binding<?> binding : injector.getBindings().values()) {
+        String jndiName = JndiBindings.getJndiName(binding.getKey());
+        if (jndiName != null && !answer.containsKey(jndiName)) {
+          answer.put(jndiName, binding.getKey());
+          for (int pos = jndiName.indexOf('/'); pos > 0; pos = jndiName.indexOf('/', pos + 1)) {
+            parents.add(jndiName.substring(0, pos));
+          }
+        }
+      }
+      contextNames = Collections.unmodifiableSet(parents);
+      index = Collections.unmodifiableMap(answer);
+    }
+    return index;
+  }
+}
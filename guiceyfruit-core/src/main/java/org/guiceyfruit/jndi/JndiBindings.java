@@ -31,9 +31,17 @@ import java.util.Set;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import org.guiceyfruit.jndi.internal.Classes;
+import org.guiceyfruit.jndi.internal.NameResolver;
 
 /** @version $Revision: 1.1 $ */
 public class JndiBindings {
+  /**
+   * The environment property which if <code>true</code> publishes the bindings of the injector
+   * lazily when their names are first looked up rather than binding them all when the context is
+   * created. Lazily published bindings are not included when listing the context.
+   */
+  public static final String LAZY_BINDINGS = "org.guiceyfruit.jndi.lazyBindings";
+
   /**
    * Binds the given injector and its binding providers to the given JNDI context using <a
    * href="http://code.google.com/p/camel-extra/wiki/GuiceJndi">this mapping mechanism</a>. <p/>
@@ -48,47 +56,23 @@ public class JndiBindings {
     // lets find all the exported bindings
     Set<Entry<Key<?>, Binding<?>>> entries = injector.getBindings().entrySet();
     for (Entry<Key<?>, Binding<?>> entry : entries) {
-      Key<?> key = entry.getKey();
-      Binding<?> binding = entry.getValue();
-      Annotation annotation = key.getAnnotation();
-      Type type = key.getTypeLiteral().getType();
-      JndiBind jndiBind = null;
-      if (type instanceof Class) {
-        Class<?> aClass = (Class<?>) type;
-        jndiBind = aClass.getAnnotation(JndiBind.class);
-      }
-
-      if (annotation instanceof JndiBind) {
-        jndiBind = (JndiBind) annotation;
-      }
-      String jndiName = null;
-      if (jndiBind != null) {
-        jndiName = jndiBind.value();
-      }
-      if (jndiName == null) {
-        if (annotation instanceof Named) {
-          Named named = (Named) annotation;
-          String name = named.value();
-          jndiName = type.toString() + "/" + name;
-        }
-        else if (type instanceof Class<?>) {
-          Class<?> aClass = (Class<?>) type;
-          if (annotation == null) {
-            jndiName = aClass.getName();
-          }
-          else {
-            jndiName = aClass.getName() + annotation;
-          }
-        }
-      }
+      String jndiName = getJndiName(entry.getKey());
       if (jndiName != null) {
-        Object value = binding.getProvider();
+        Object value = entry.getValue().getProvider();
         if (value != null) {
           context.bind(jndiName, value);
         }
       }
     }
+    bindJndiNames(context, injector, jndiNames);
+  }
 
+  /**
+   * Binds the providers of the types named by the expressions in the given properties to the
+   * property names in the given JNDI context
+   */
+  public static void bindJndiNames(Context context, Injector injector, Properties jndiNames)
+      throws NamingException {
     for (Entry entry : jndiNames.entrySet()) {
       String jndiName = entry.getKey().toString();
       String expression = entry.getValue().toString();
@@ -100,6 +84,51 @@ public class JndiBindings {
     }
   }
 
+  /**
+   * Returns a resolver of the names which {@link #bindInjectorAndBindings} would bind so that a
+   * {@link org.guiceyfruit.jndi.internal.JndiContext} can publish the bindings of the injector
+   * lazily. Names are mapped to the keys of the injector's bindings on their first lookup.
+   */
+  public static NameResolver createNameResolver(Injector injector) {
+    return new InjectorNameResolver(injector);
+  }
+
+  /** Returns the JNDI name the binding of the key is exported as or null if it is not exported */
+  static String getJndiName(Key<?> key) {
+    Annotation annotation = key.getAnnotation();
+    Type type = key.getTypeLiteral().getType();
+    JndiBind jndiBind = null;
+    if (type instanceof Class) {
+      Class<?> aClass = (Class<?>) type;
+      jndiBind = aClass.getAnnotation(JndiBind.class);
+    }
+
+    if (annotation instanceof JndiBind) {
+      jndiBind = (JndiBind) annotation;
+    }
+    String jndiName = null;
+    if (jndiBind != null) {
+      jndiName = jndiBind.value();
+    }
+    if (jndiName == null) {
+      if (annotation instanceof Named) {
+        Named named = (Named) annotation;
+        String name = named.value();
+        jndiName = type.toString() + "/" + name;
+      }
+      else if (type instanceof Class<?>) {
+        Class<?> aClass = (Class<?>) type;
+        if (annotation == null) {
+          jndiName = aClass.getName();
+        }
+        else {
+          jndiName = aClass.getName() + annotation;
+        }
+      }
+    }
+    return jndiName;
+  }
+
   static Provider getProviderForExpression(Injector injector, String expression) {
     // TODO we could support more complex expressions
     // like 'className/name' to map to @Named annotations
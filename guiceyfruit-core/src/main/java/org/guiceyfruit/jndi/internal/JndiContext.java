@@ -1,4 +1,5 @@
 /**
+ *
  * Licensed to the Apache Software Foundation (ASF) under one or more
  * contributor license agreements.  See the NOTICE file distributed with
  * this work for additional information regarding copyright ownership.
@@ -6,7 +7,7 @@
  * (the "License"); you may not use this file except in compliance with
  * the License.  You may obtain a copy of the License at
  *
- *      http://www.apache.org/licenses/LICENSE-2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
  *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
@@ -18,14 +19,21 @@
 package org.guiceyfruit.jndi.internal;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.naming.Binding;
 import javax.naming.CompositeName;
 import javax.naming.Context;
+import javax.naming.InvalidNameException;
 import javax.naming.LinkRef;
 import javax.naming.Name;
 import javax.naming.NameClassPair;
@@ -36,16 +44,32 @@ import javax.naming.NamingException;
 import javax.naming.NotContextException;
 import javax.naming.OperationNotSupportedException;
 import javax.naming.Reference;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingListener;
 import javax.naming.spi.NamingManager;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Provider;
 
 /**
  * A default JNDI context
  *
+ * The namespace is an immutable trie of subcontexts which is replaced atomically whenever an
+ * object is bound so that lookups never need to lock. Subcontexts are views of the same namespace
+ * at a path within the trie. Once the context is frozen the trie is compacted and every name is
+ * indexed so that lookups of nested names do not need to walk the trie.
+ *
+ * A context can be created with a {@link NameResolver} which is used to find the objects of any
+ * names which have not been bound so that objects can be published lazily, along with the
+ * subcontexts containing them.
+ *
+ * Listeners can be registered to be notified when names are bound, rebound or unbound so that
+ * clients can cache the objects they look up.
+ *
  * @version $Revision:$
  */
-public class JndiContext implements Context, Serializable {
+public class JndiContext implements EventContext, Serializable {
   public static final String SEPARATOR = "/";
   protected static final NameParser NAME_PARSER = new NameParser() {
     public Name parse(String name) throws NamingException {
@@ -54,11 +78,21 @@ public class JndiContext implements Context, Serializable {
   };
   private static final long serialVersionUID = -5754338187296859149L;
 
-  private final Hashtable environment; // environment for this context
-  private final Map bindings; // bindings at my level
-  private final Map treeBindings; // all bindings under me
-  private boolean frozen;
+  private static final int MAX_CACHED_NAMES = 1024;
+
+  private volatile Hashtable environment; // environment for this context, copied on write
+  private final AtomicReference<Namespace> namespace; // shared by all views of the namespace
+  private final NamingListeners listeners; // shared by all views of the namespace
+  private final NameResolver resolver; // resolves names which are not bound, may be null
+  private final List<String> path; // path of this context within the namespace
+  private final String pathPrefix; // path of this context as a prefix of nested names
   private String nameInNamespace = "";
+  private final ConcurrentMap<String, ParsedName> parsedNames
+      = new ConcurrentHashMap<String, ParsedName>();
+  private final ConcurrentMap<String, JndiContext> subcontexts
+      = new ConcurrentHashMap<String, JndiContext>();
+  private final ConcurrentMap<String, Context> urlContexts
+      = new ConcurrentHashMap<String, Context>();
 
   public JndiContext() throws Exception {
     this(new Hashtable(), new HashMap());
@@ -69,14 +103,29 @@ public class JndiContext implements Context, Serializable {
   }
 
   public JndiContext(Hashtable environment, Map bindings) {
-    if (environment == null) {
-      this.environment = new Hashtable();
-    }
-    else {
-      this.environment = new Hashtable(environment);
+    this(environment, bindings, (NameResolver) null);
+  }
+
+  /**
+   * Creates a context which uses the resolver to find the objects of names which have not been
+   * bound
+   */
+  public JndiContext(Hashtable environment, NameResolver resolver) {
+    this(environment, new HashMap(), resolver);
+  }
+
+  private JndiContext(Hashtable environment, Map bindings, NameResolver resolver) {
+    this(new AtomicReference<Namespace>(Namespace.EMPTY), new NamingListeners(), resolver,
+        Collections.<String>emptyList(), copyEnvironment(environment));
+    for (Iterator iterator = bindings.entrySet().iterator(); iterator.hasNext();) {
+      Map.Entry entry = (Map.Entry) iterator.next();
+      try {
+        internalBind((String) entry.getKey(), entry.getValue());
+      }
+      catch (NamingException e) {
+        throw new IllegalArgumentException(e);
+      }
     }
-    this.bindings = bindings;
-    treeBindings = new HashMap();
   }
 
   public JndiContext(Hashtable environment, Map bindings, String nameInNamespace) {
@@ -85,9 +134,7 @@ public class JndiContext implements Context, Serializable {
   }
 
   protected JndiContext(JndiContext clone, Hashtable env) {
-    this.bindings = clone.bindings;
-    this.treeBindings = clone.treeBindings;
-    this.environment = new Hashtable(env);
+    this(clone.namespace, clone.listeners, clone.resolver, clone.path, copyEnvironment(env));
   }
 
   protected JndiContext(JndiContext clone, Hashtable env, String nameInNamespace) {
@@ -95,23 +142,57 @@ public class JndiContext implements Context, Serializable {
     this.nameInNamespace = nameInNamespace;
   }
 
+  /** Creates a view of the namespace which shares the given environment until it is modified */
+  private JndiContext(AtomicReference<Namespace> namespace, NamingListeners listeners,
+      NameResolver resolver, List<String> path, Hashtable env) {
+    this.namespace = namespace;
+    this.listeners = listeners;
+    this.resolver = resolver;
+    this.path = path;
+    this.environment = env;
+    StringBuilder buffer = new StringBuilder();
+    for (String segment : path) {
+      buffer.append(segment).append(SEPARATOR);
+    }
+    this.pathPrefix = buffer.toString();
+  }
+
+  /**
+   * Prevents any more objects being bound into this context or any of the other contexts of its
+   * namespace, compacting the namespace into a read only form optimized for lookups
+   */
   public void freeze() {
-    frozen = true;
+    while (true) {
+      Namespace current = namespace.get();
+      if (current.isFrozen() || namespace.compareAndSet(current, current.freeze())) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns a lightweight view of this context which shares its bindings but has its own copy of
+   * the given environment
+   */
+  public JndiContext createView(Hashtable environment) {
+    return new JndiContext(this, environment, nameInNamespace);
   }
 
   boolean isFrozen() {
-    return frozen;
+    return namespace.get().isFrozen();
   }
 
   /**
-   * internalBind is intended for use only during setup or possibly by suitably synchronized
-   * superclasses. It binds every possible lookup into a map in each context. To do this, each
-   * context strips off one name segment and if necessary creates a new context for it. Then it asks
-   * that context to bind the remaining name. It returns a map containing all the bindings from the
-   * next context, plus the context it just created (if it in fact created it). (the names are
-   * suitably extended by the segment originally lopped off).
+   * internalBind is intended for use only during setup. It binds the value at the given name
+   * relative to this context, creating any of the intermediate subcontexts which do not exist yet,
+   * by atomically replacing the namespace with a copy which shares all of the unchanged
+   * subcontexts.
    */
-  protected Map internalBind(String name, Object value) throws NamingException {
+  protected void internalBind(String name, Object value) throws NamingException {
+    internalBind(name, value, false);
+  }
+
+  private void internalBind(String name, Object value, boolean replace) throws NamingException {
 /*
     // lets wrap the value in a Provider
     final Object originalValue = value;
@@ -121,84 +202,170 @@ public class JndiContext implements Context, Serializable {
       }
     };
 */
-    assert name != null && name.length() > 0;
-    assert !frozen;
+    List<String> names = getNames(name);
+    while (true) {
+      Namespace current = namespace.get();
+      if (current.isFrozen()) {
+        throw new OperationNotSupportedException();
+      }
+      Object oldValue = current.getRoot().get(names);
+      Node root = current.getRoot().bind(names, 0, value, replace);
+      if (namespace.compareAndSet(current, new Namespace(root))) {
+        listeners.fire(oldValue == null ? NamingEvent.OBJECT_ADDED : NamingEvent.OBJECT_CHANGED,
+            Node.join(names), value, oldValue);
+        return;
+      }
+    }
+  }
 
-    Map newBindings = new HashMap();
-    int pos = name.indexOf('/');
-    if (pos == -1) {
-      if (treeBindings.put(name, value) != null) {
-        throw new NamingException("Something already bound at " + name);
+  /** Returns the path within the namespace of the given name relative to this context */
+  private List<String> getNames(String name) throws NamingException {
+    List<String> answer = new ArrayList<String>(path);
+    int start = 0;
+    while (true) {
+      int pos = name.indexOf('/', start);
+      String segment = pos < 0 ? name.substring(start) : name.substring(start, pos);
+      if (segment.length() == 0) {
+        throw new InvalidNameException("Empty name segment in " + name);
+      }
+      answer.add(segment);
+      if (pos < 0) {
+        return answer;
       }
-      bindings.put(name, value);
-      newBindings.put(name, value);
+      start = pos + 1;
     }
-    else {
-      String segment = name.substring(0, pos);
-      assert segment != null;
-      assert !segment.equals("");
-      Object o = treeBindings.get(segment);
-      if (o == null) {
-        o = newContext();
-        treeBindings.put(segment, o);
-        bindings.put(segment, o);
-        newBindings.put(segment, o);
-      }
-      else if (!(o instanceof JndiContext)) {
-        throw new NamingException("Something already bound where a subcontext should go");
+  }
+
+  private static Hashtable copyEnvironment(Hashtable environment) {
+    return environment == null ? new Hashtable() : new Hashtable(environment);
+  }
+
+  /** Returns the node of this context or null if it no longer exists */
+  private Node getNode() {
+    return getNode(namespace.get());
+  }
+
+  private Node getNode(Namespace namespace) {
+    Object current = namespace.getRoot();
+    for (String segment : path) {
+      if (!(current instanceof Node)) {
+        return null;
       }
-      JndiContext defaultContext = (JndiContext) o;
-      String remainder = name.substring(pos + 1);
-      Map subBindings = defaultContext.internalBind(remainder, value);
-      for (Iterator iterator = subBindings.entrySet().iterator(); iterator.hasNext();) {
-        Map.Entry entry = (Map.Entry) iterator.next();
-        String subName = segment + "/" + (String) entry.getKey();
-        Object bound = entry.getValue();
-        treeBindings.put(subName, bound);
-        newBindings.put(subName, bound);
+      current = ((Node) current).get(segment);
+    }
+    return current instanceof Node ? (Node) current : null;
+  }
+
+  /** Returns the value or subcontext node bound at the given name or null if there is none */
+  private Object resolve(String name) {
+    Namespace current = namespace.get();
+    Map<String, Object> index = current.getIndex();
+    if (index != null && pathPrefix.length() == 0) {
+      return index.get(name);
+    }
+    ParsedName parsedName = parse(name);
+    if (index != null) {
+      return index.get(parsedName.getQualifiedName());
+    }
+    Object value = getNode(current);
+    for (String segment : parsedName.getSegments()) {
+      if (!(value instanceof Node)) {
+        return null;
       }
+      value = ((Node) value).get(segment);
     }
-    return newBindings;
+    return value;
   }
 
-  protected JndiContext newContext() {
-    try {
-      return new JndiContext();
+  /** Returns the parsed form of the name relative to this context, caching it for reuse */
+  private ParsedName parse(String name) {
+    ParsedName answer = parsedNames.get(name);
+    if (answer == null) {
+      answer = new ParsedName(pathPrefix + name, name.split(SEPARATOR, -1));
+      if (parsedNames.size() < MAX_CACHED_NAMES) {
+        parsedNames.putIfAbsent(name, answer);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the subcontext of this context at the given name which shares the environment of this
+   * context, reusing the same view for subsequent lookups
+   */
+  private JndiContext getSubcontextView(String name) throws NamingException {
+    JndiContext answer = subcontexts.get(name);
+    if (answer == null) {
+      answer = new JndiContext(namespace, listeners, resolver, getNames(name), environment);
+      answer.nameInNamespace = getChildName(name);
+      if (subcontexts.size() < MAX_CACHED_NAMES) {
+        JndiContext existing = subcontexts.putIfAbsent(name, answer);
+        if (existing != null) {
+          answer = existing;
+        }
+      }
     }
-    catch (Exception e) {
-      throw new IllegalArgumentException(e);
+    return answer;
+  }
+
+  /** Returns the URL context of the scheme for this context's environment */
+  private Context getURLContext(String scheme) throws NamingException {
+    Context answer = urlContexts.get(scheme);
+    if (answer == null) {
+      answer = NamingManager.getURLContext(scheme, environment);
+      if (answer == null) {
+        throw new NamingException("scheme " + scheme + " not recognized");
+      }
+      if (urlContexts.size() < MAX_CACHED_NAMES) {
+        urlContexts.putIfAbsent(scheme, answer);
+      }
     }
+    return answer;
+  }
+
+  /** Replaces the environment, discarding everything which was cached using the old one */
+  private void setEnvironment(Hashtable environment) {
+    this.environment = environment;
+    subcontexts.clear();
+    urlContexts.clear();
   }
 
-  public Object addToEnvironment(String propName, Object propVal) throws NamingException {
-    return environment.put(propName, propVal);
+  public synchronized Object addToEnvironment(String propName, Object propVal)
+      throws NamingException {
+    Hashtable copy = copyEnvironment(environment);
+    Object answer = copy.put(propName, propVal);
+    setEnvironment(copy);
+    return answer;
   }
 
   public Hashtable getEnvironment() throws NamingException {
     return (Hashtable) environment.clone();
   }
 
-  public Object removeFromEnvironment(String propName) throws NamingException {
-    return environment.remove(propName);
+  public synchronized Object removeFromEnvironment(String propName) throws NamingException {
+    Hashtable copy = copyEnvironment(environment);
+    Object answer = copy.remove(propName);
+    setEnvironment(copy);
+    return answer;
   }
 
   public Object lookup(String name) throws NamingException {
     if (name.length() == 0) {
       return this;
     }
-    Object result = treeBindings.get(name);
-    if (result == null) {
-      result = bindings.get(name);
+    Object result = resolve(name);
+    if (result == null && resolver != null) {
+      String resolvedName = pathPrefix.length() == 0 ? name : pathPrefix + name;
+      result = resolver.resolve(resolvedName);
+      if (result == null && resolver.isContext(resolvedName)) {
+        return getSubcontextView(name);
+      }
     }
     if (result == null) {
       int pos = name.indexOf(':');
       if (pos > 0) {
         String scheme = name.substring(0, pos);
-        Context ctx = NamingManager.getURLContext(scheme, environment);
-        if (ctx == null) {
-          throw new NamingException("scheme " + scheme + " not recognized");
-        }
-        return ctx.lookup(name);
+        return getURLContext(scheme).lookup(name);
       }
       else {
         // Split out the first name of the path
@@ -210,15 +377,25 @@ public class JndiContext implements Context, Serializable {
         }
         else {
           String first = path.get(0);
-          Object value = bindings.get(first);
+          Node node = getNode();
+          Object value = node != null ? node.get(first) : null;
           if (value == null) {
             throw new NameNotFoundException(name);
           }
-          else if (value instanceof Context && path.size() > 1) {
-            Context subContext = (Context) value;
-            value = subContext.lookup(path.getSuffix(1));
+          else if (path.size() > 1) {
+            Context subContext;
+            if (value instanceof Node) {
+              subContext = getSubcontextView(first);
+            }
+            else if (value instanceof Context) {
+              subContext = (Context) value;
+            }
+            else {
+              throw new NotContextException(first);
+            }
+            return subContext.lookup(path.getSuffix(1));
           }
-          return value;
+          result = value;
         }
       }
     }
@@ -241,16 +418,23 @@ public class JndiContext implements Context, Serializable {
         throw (NamingException) new NamingException("could not look up : " + name).initCause(e);
       }
     }
-    if (result instanceof JndiContext) {
-      String prefix = getNameInNamespace();
-      if (prefix.length() > 0) {
-        prefix = prefix + SEPARATOR;
-      }
-      result = new JndiContext((JndiContext) result, environment, prefix + name);
+    if (result instanceof Node) {
+      result = getSubcontextView(name);
+    }
+    else if (result instanceof JndiContext) {
+      result = new JndiContext((JndiContext) result, environment, getChildName(name));
     }
     return result;
   }
 
+  private String getChildName(String name) throws NamingException {
+    String prefix = getNameInNamespace();
+    if (prefix.length() > 0) {
+      prefix = prefix + SEPARATOR;
+    }
+    return prefix + name;
+  }
+
   public Object lookup(Name name) throws NamingException {
     return lookup(name.toString());
   }
@@ -322,8 +506,9 @@ public class JndiContext implements Context, Serializable {
     }
   }
 
+  /** Removes the naming listeners registered using this context */
   public void close() throws NamingException {
-    // ignore
+    listeners.removeAll(this);
   }
 
   public Context createSubcontext(Name name) throws NamingException {
@@ -355,11 +540,16 @@ public class JndiContext implements Context, Serializable {
   }
 
   public void rebind(Name name, Object value) throws NamingException {
-    bind(name, value);
+    rebind(name.toString(), value);
   }
 
   public void rebind(String name, Object value) throws NamingException {
-    bind(name, value);
+    if (isFrozen()) {
+      throw new OperationNotSupportedException();
+    }
+    else {
+      internalBind(name, value, true);
+    }
   }
 
   public void rename(Name oldName, Name newName) throws NamingException {
@@ -371,16 +561,251 @@ public class JndiContext implements Context, Serializable {
   }
 
   public void unbind(Name name) throws NamingException {
-    throw new OperationNotSupportedException();
+    unbind(name.toString());
   }
 
   public void unbind(String name) throws NamingException {
-    bindings.remove(name);
-    treeBindings.remove(name);
+    List<String> names = getNames(name);
+    while (true) {
+      Namespace current = namespace.get();
+      if (current.isFrozen()) {
+        throw new OperationNotSupportedException();
+      }
+      Object oldValue = current.getRoot().get(names);
+      Node root = current.getRoot().unbind(names, 0);
+      if (root == current.getRoot()) {
+        return;
+      }
+      if (namespace.compareAndSet(current, new Namespace(root))) {
+        listeners.fire(NamingEvent.OBJECT_REMOVED, Node.join(names), null, oldValue);
+        return;
+      }
+    }
+  }
+
+  public void addNamingListener(Name target, int scope, NamingListener listener)
+      throws NamingException {
+    addNamingListener(target.toString(), scope, listener);
+  }
+
+  public void addNamingListener(String target, int scope, NamingListener listener)
+      throws NamingException {
+    String name = target.length() == 0 ? Node.join(path) : Node.join(getNames(target));
+    try {
+      listeners.add(this, name, scope, listener);
+    }
+    catch (IllegalArgumentException e) {
+      throw (NamingException) new InvalidNameException(e.getMessage()).initCause(e);
+    }
+  }
+
+  public void removeNamingListener(NamingListener listener) throws NamingException {
+    listeners.remove(this, listener);
+  }
+
+  public boolean targetMustExist() throws NamingException {
+    return false;
+  }
+
+  /** Returns the name relative to this context of a name relative to the root of the namespace */
+  String getRelativeName(String name) {
+    return name.length() > pathPrefix.length() ? name.substring(pathPrefix.length()) : "";
+  }
+
+  /** Returns the binding of a value at a name relative to this context or null for no value */
+  Binding createBinding(String name, Object value) {
+    if (value == null) {
+      return null;
+    }
+    if (value instanceof Node) {
+      try {
+        value = name.length() == 0 ? this : getSubcontextView(name);
+      }
+      catch (NamingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return new Binding(name, value);
+  }
+
+  /** A name relative to a context split into its segments */
+  private static final class ParsedName implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String qualifiedName;
+    private final String[] segments;
+
+    ParsedName(String qualifiedName, String[] segments) {
+      this.qualifiedName = qualifiedName;
+      this.segments = segments;
+    }
+
+    /** Returns the name relative to the root of the namespace */
+    String getQualifiedName() {
+      return qualifiedName;
+    }
+
+    String[] getSegments() {
+      return segments;
+    }
+  }
+
+  /**
+   * An immutable node of the namespace trie whose children are either bound objects or the nodes
+   * of subcontexts
+   */
+  private static final class Node implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final Node EMPTY = new Node(Collections.<String, Object>emptyMap());
+
+    private final Map<String, Object> children;
+
+    Node(Map<String, Object> children) {
+      this.children = children;
+    }
+
+    Object get(String name) {
+      return children.get(name);
+    }
+
+    Map<String, Object> getChildren() {
+      return children;
+    }
+
+    /** Returns the value or node at the path or null if there is none */
+    Object get(List<String> names) {
+      Object current = this;
+      for (String name : names) {
+        if (!(current instanceof Node)) {
+          return null;
+        }
+        current = ((Node) current).get(name);
+      }
+      return current;
+    }
+
+    /** Returns a copy of this node with the value bound at the path starting at the index */
+    Node bind(List<String> names, int index, Object value, boolean replace)
+        throws NamingException {
+      String name = names.get(index);
+      Object child = children.get(name);
+      if (index == names.size() - 1) {
+        if (child != null && !replace) {
+          throw new NamingException("Something already bound at " + join(names));
+        }
+        return with(name, value);
+      }
+      if (child == null) {
+        child = EMPTY;
+      }
+      else if (!(child instanceof Node)) {
+        throw new NamingException("Something already bound where a subcontext should go");
+      }
+      return with(name, ((Node) child).bind(names, index + 1, value, replace));
+    }
+
+    /** Returns a copy of this node without the value at the path or this node if it is unbound */
+    Node unbind(List<String> names, int index) {
+      String name = names.get(index);
+      Object child = children.get(name);
+      if (child == null) {
+        return this;
+      }
+      if (index == names.size() - 1) {
+        Map<String, Object> copy = new HashMap<String, Object>(children);
+        copy.remove(name);
+        return new Node(copy);
+      }
+      if (!(child instanceof Node)) {
+        return this;
+      }
+      Node node = (Node) child;
+      Node newNode = node.unbind(names, index + 1);
+      return newNode == node ? this : with(name, newNode);
+    }
+
+    private Node with(String name, Object child) {
+      Map<String, Object> copy = new HashMap<String, Object>(children);
+      copy.put(name, child);
+      return new Node(copy);
+    }
+
+    /** Returns a read only copy of this node and all of its subcontexts, indexing every name */
+    Node compact(String prefix, ImmutableMap.Builder<String, Object> index) {
+      ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+      for (Map.Entry<String, Object> entry : children.entrySet()) {
+        String name = prefix + entry.getKey();
+        Object child = entry.getValue();
+        if (child instanceof Node) {
+          child = ((Node) child).compact(name + SEPARATOR, index);
+        }
+        index.put(name, child);
+        builder.put(entry.getKey(), child);
+      }
+      return new Node(builder.build());
+    }
+
+    static String join(List<String> names) {
+      StringBuilder buffer = new StringBuilder();
+      for (String name : names) {
+        if (buffer.length() > 0) {
+          buffer.append(SEPARATOR);
+        }
+        buffer.append(name);
+      }
+      return buffer.toString();
+    }
+  }
+
+  /**
+   * The state of a namespace which is published atomically; the root of the trie and, once it has
+   * been frozen, the index of every name in the namespace
+   */
+  private static final class Namespace implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final Namespace EMPTY = new Namespace(Node.EMPTY);
+
+    private final Node root;
+    private final Map<String, Object> index;
+
+    Namespace(Node root) {
+      this(root, null);
+    }
+
+    private Namespace(Node root, Map<String, Object> index) {
+      this.root = root;
+      this.index = index;
+    }
+
+    Node getRoot() {
+      return root;
+    }
+
+    /** Returns the index of all of the names in the namespace or null if it is not frozen */
+    Map<String, Object> getIndex() {
+      return index;
+    }
+
+    boolean isFrozen() {
+      return index != null;
+    }
+
+    Namespace freeze() {
+      ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+      Node compacted = root.compact("", builder);
+      return new Namespace(compacted, builder.build());
+    }
   }
 
   private abstract class LocalNamingEnumeration implements NamingEnumeration {
-    private Iterator i = bindings.entrySet().iterator();
+    private Iterator<Map.Entry<String, Object>> i;
+
+    LocalNamingEnumeration() {
+      Node node = getNode();
+      Map<String, Object> children = node != null
+          ? node.getChildren() : Collections.<String, Object>emptyMap();
+      i = children.entrySet().iterator();
+    }
 
     public boolean hasMore() throws NamingException {
       return i.hasNext();
@@ -390,8 +815,21 @@ public class JndiContext implements Context, Serializable {
       return i.hasNext();
     }
 
-    protected Map.Entry getNext() {
-      return (Map.Entry) i.next();
+    protected Map.Entry<String, Object> getNext() {
+      return i.next();
+    }
+
+    /** Returns the bound object, creating a view of the namespace for subcontexts */
+    protected Object getObject(String name, Object value) {
+      if (value instanceof Node) {
+        try {
+          return getSubcontextView(name);
+        }
+        catch (NamingException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return value;
     }
 
     public void close() throws NamingException {
@@ -407,8 +845,11 @@ public class JndiContext implements Context, Serializable {
     }
 
     public Object nextElement() {
-      Map.Entry entry = getNext();
-      return new NameClassPair((String) entry.getKey(), entry.getValue().getClass().getName());
+      Map.Entry<String, Object> entry = getNext();
+      Object value = entry.getValue();
+      String className = value instanceof Node
+          ? JndiContext.class.getName() : value.getClass().getName();
+      return new NameClassPair(entry.getKey(), className);
     }
   }
 
@@ -421,8 +862,8 @@ public class JndiContext implements Context, Serializable {
     }
 
     public Object nextElement() {
-      Map.Entry entry = getNext();
-      return new Binding((String) entry.getKey(), entry.getValue());
+      Map.Entry<String, Object> entry = getNext();
+      return new Binding(entry.getKey(), getObject(entry.getKey(), entry.getValue()));
     }
   }
 }
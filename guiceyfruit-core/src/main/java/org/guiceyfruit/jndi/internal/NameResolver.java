@@ -0,0 +1,43 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.internal;
+
+import javax.naming.NamingException;
+
+/**
+ * Resolves the objects for names which have not been bound into a {@link JndiContext} so that
+ * objects can be published on demand rather than all being bound up front
+ *
+ * @version $Revision: 1.1 $
+ */
+public interface NameResolver {
+
+  /**
+   * Returns the object for the name, relative to the root of the context, or null if there is no
+   * such object. If the object is a {@link com.google.inject.Provider} it is used to create the
+   * object returned from the lookup.
+   */
+  Object resolve(String name) throws NamingException;
+
+  /**
+   * Returns true if the name, relative to the root of the context, is the parent of any of the names
+   * the resolver resolves so that it can be looked up as a subcontext
+   */
+  boolean isContext(String name) throws NamingException;
+}
@@ -0,0 +1,186 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.internal;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.event.EventContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingListener;
+import javax.naming.event.ObjectChangeListener;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The registry of the {@link NamingListener} instances of a namespace, indexed by the name of
+ * their target relative to the root of the namespace for each of the {@link EventContext} scopes
+ * so that firing an event only needs to look at the changed name and its ancestors. Any exception
+ * thrown by a listener is logged rather than failing the change it was notified of.
+ *
+ * @version $Revision: 1.1 $
+ */
+class NamingListeners implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG = Logger.getLogger(NamingListeners.class.getName());
+
+  private final ConcurrentMap<String, List<Registration>> objectListeners
+      = new ConcurrentHashMap<String, List<Registration>>();
+  private final ConcurrentMap<String, List<Registration>> oneLevelListeners
+      = new ConcurrentHashMap<String, List<Registration>>();
+  private final ConcurrentMap<String, List<Registration>> subtreeListeners
+      = new ConcurrentHashMap<String, List<Registration>>();
+  private volatile boolean empty = true;
+
+  public void add(JndiContext source, String target, int scope, NamingListener listener) {
+    ConcurrentMap<String, List<Registration>> map = getListeners(scope);
+    List<Registration> list = map.get(target);
+    if (list == null) {
+      List<Registration> newList = new CopyOnWriteArrayList<Registration>();
+      list = map.putIfAbsent(target, newList);
+      if (list == null) {
+        list = newList;
+      }
+    }
+    list.add(new Registration(source, listener));
+    empty = false;
+  }
+
+  /** Removes all of the registrations of the listener made using the given context */
+  public void remove(JndiContext source, NamingListener listener) {
+    remove(objectListeners, source, listener);
+    remove(oneLevelListeners, source, listener);
+    remove(subtreeListeners, source, listener);
+  }
+
+  /** Removes all of the registrations made using the given context, such as when it is closed */
+  public void removeAll(JndiContext source) {
+    removeAll(objectListeners, source);
+    removeAll(oneLevelListeners, source);
+    removeAll(subtreeListeners, source);
+  }
+
+  /**
+   * Notifies the listeners interested in the name, relative to the root of the namespace, which
+   * has been added, removed or changed
+   */
+  public void fire(int type, String name, Object newValue, Object oldValue) {
+    if (empty) {
+      return;
+    }
+    List<Registration> registrations = Lists.newArrayList();
+    addAll(registrations, objectListeners.get(name));
+    int pos = name.lastIndexOf('/');
+    addAll(registrations, oneLevelListeners.get(pos < 0 ? "" : name.substring(0, pos)));
+    addAll(registrations, subtreeListeners.get(""));
+    for (pos = name.indexOf('/'); pos > 0; pos = name.indexOf('/', pos + 1)) {
+      addAll(registrations, subtreeListeners.get(name.substring(0, pos)));
+    }
+    if (name.length() > 0) {
+      addAll(registrations, subtreeListeners.get(name));
+    }
+
+    // the change has already been made so a failing listener must not fail the operation
+    for (Registration registration : registrations) {
+      try {
+        registration.fire(type, name, newValue, oldValue);
+      }
+      catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Failed to notify " + registration.listener + " of the change to "
+            + name + ". Reason: " + e, e);
+      }
+    }
+  }
+
+  private ConcurrentMap<String, List<Registration>> getListeners(int scope) {
+    switch (scope) {
+    case EventContext.OBJECT_SCOPE:
+      return objectListeners;
+    case EventContext.ONELEVEL_SCOPE:
+      return oneLevelListeners;
+    case EventContext.SUBTREE_SCOPE:
+      return subtreeListeners;
+    default:
+      throw new IllegalArgumentException("Invalid scope " + scope);
+    }
+  }
+
+  private static void remove(ConcurrentMap<String, List<Registration>> map, JndiContext source,
+      NamingListener listener) {
+    for (List<Registration> list : map.values()) {
+      for (Registration registration : list) {
+        if (registration.matches(source, listener)) {
+          list.remove(registration);
+        }
+      }
+    }
+  }
+
+  private static void removeAll(ConcurrentMap<String, List<Registration>> map,
+      JndiContext source) {
+    for (List<Registration> list : map.values()) {
+      for (Registration registration : list) {
+        if (registration.source == source) {
+          list.remove(registration);
+        }
+      }
+    }
+  }
+
+  private static void addAll(List<Registration> answer, List<Registration> registrations) {
+    if (registrations != null) {
+      answer.addAll(registrations);
+    }
+  }
+
+  /** A listener registered with a context, to which the names in its events are relative */
+  private static class Registration implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final JndiContext source;
+    private final NamingListener listener;
+
+    Registration(JndiContext source, NamingListener listener) {
+      this.source = source;
+      this.listener = listener;
+    }
+
+    boolean matches(JndiContext source, NamingListener listener) {
+      return this.source == source && this.listener == listener;
+    }
+
+    void fire(int type, String name, Object newValue, Object oldValue) {
+      if (type == NamingEvent.OBJECT_CHANGED ? !(listener instanceof ObjectChangeListener)
+          : !(listener instanceof NamespaceChangeListener)) {
+        return;
+      }
+      String relativeName = source.getRelativeName(name);
+      NamingEvent event = new NamingEvent(source, type,
+          source.createBinding(relativeName, newValue), source.createBinding(relativeName, oldValue),
+          null);
+      event.dispatch(listener);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jsr250;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+
+/**
+ * Collects the names injected into the members annotated with {@link javax.annotation.Resource}
+ * or <code>@EJB</code> as the injector encounters their types, so that all of the names which
+ * are not bound in the injector can be looked up in JNDI concurrently when the application starts
+ * rather than one at a time on their first injection.
+ *
+ * Prefetched objects are stored in the {@link NamedResolutionCache} so they are used by the first
+ * injection of each name, provided the same JNDI context is used for the injection, such as when
+ * the {@link Context} is bound as a singleton or not bound at all.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class JndiPrefetcher {
+  private final Set<NamedType> names
+      = Sets.newSetFromMap(new ConcurrentHashMap<NamedType, Boolean>());
+  @Inject
+  private NamedResolutionCache resolutionCache;
+  private Provider<Context> contextProvider;
+
+  @Inject(optional = true)
+  public void setContextProvider(Provider<Context> contextProvider) {
+    this.contextProvider = contextProvider;
+  }
+
+  /**
+   * Adds the name injected into the given annotated field or single parameter method
+   *
+   * @param type the type declaring the member used to resolve the type of the member
+   * @param member the annotated field or method
+   * @param nameFromAnnotation the name on the annotation, if any
+   */
+  public void addName(TypeLiteral<?> type, Member member, String nameFromAnnotation) {
+    TypeLiteral<?> requiredType;
+    if (member instanceof Field) {
+      requiredType = type.getFieldType((Field) member);
+    }
+    else if (member instanceof Method
+        && ((Method) member).getParameterTypes().length == 1) {
+      requiredType = type.getParameterTypes((Method) member).get(0);
+    }
+    else {
+      return;
+    }
+    names.add(new NamedType(requiredType, NamedProviderSupport.getName(nameFromAnnotation, member)));
+  }
+
+  /**
+   * Looks up all of the names found so far which are not bound in the injector concurrently using
+   * the given executor, waiting at most the given timeout for them to complete.
+   *
+   * @return the failure for each name which could not be found or did not complete in time
+   */
+  public Map<String, NamingException> prefetch(ExecutorService executor, long timeout,
+      TimeUnit unit) throws NamingException, InterruptedException {
+    final Context context = getContext();
+    Set<String> jndiNames = Sets.newTreeSet();
+    for (NamedType namedType : names) {
+      if (resolutionCache.getNamedBindingProvider(namedType.type, namedType.name) == null) {
+        jndiNames.add(namedType.name);
+      }
+    }
+
+    List<String> nameList = Lists.newArrayList(jndiNames);
+    List<Callable<Object>> tasks = Lists.newArrayList();
+    for (final String name : nameList) {
+      tasks.add(new Callable<Object>() {
+        public Object call() throws NamingException {
+          resolutionCache.prefetch(context, name);
+          return null;
+        }
+      });
+    }
+
+    Map<String, NamingException> failures = Maps.newTreeMap();
+    List<Future<Object>> futures = executor.invokeAll(tasks, timeout, unit);
+    for (int i = 0; i < futures.size(); i++) {
+      String name = nameList.get(i);
+      try {
+        futures.get(i).get();
+      }
+      catch (CancellationException e) {
+        failures.put(name, new NamingException("Timed out looking up '" + name + "' in JNDI"));
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        NamingException exception;
+        if (cause instanceof NamingException) {
+          exception = (NamingException) cause;
+        }
+        else {
+          exception = new NamingException("Failed to look up '" + name + "' in JNDI. Cause: "
+              + cause);
+          exception.setRootCause(cause);
+        }
+        failures.put(name, exception);
+      }
+    }
+    return failures;
+  }
+
+  protected Context getContext() throws NamingException {
+    Context context = contextProvider != null ? contextProvider.get() : null;
+    return context != null ? context : resolutionCache.getDefaultContext();
+  }
+
+  /** A name to be injected into a member of the given type */
+  private static class NamedType {
+    private final TypeLiteral<?> type;
+    private final String name;
+
+    NamedType(TypeLiteral<?> type, String name) {
+      this.type = type;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof NamedType) {
+        NamedType that = (NamedType) obj;
+        return type.equals(that.type) && name.equals(that.name);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return type.hashCode() * 31 + name.hashCode();
+    }
+  }
+}
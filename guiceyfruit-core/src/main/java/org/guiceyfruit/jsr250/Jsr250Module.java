@@ -18,35 +18,76 @@
 
 package org.guiceyfruit.jsr250;
 
-import java.lang.annotation.Annotation;
+import com.google.inject.ProvisionException;
+import com.google.inject.TypeLiteral;
+import com.google.inject.spi.InjectionListener;
+import com.google.inject.spi.TypeEncounter;
+import com.google.inject.spi.TypeListener;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.reflect.Member;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import org.guiceyfruit.support.GuiceyFruitModule;
-import org.guiceyfruit.support.MethodHandler;
+import org.guiceyfruit.support.InjectionPointListener;
 
 /**
  * A module which installs JSR 250 lifecycle and injection using the {@link Resource} annotation.
+ * The {@link PostConstruct} methods of a class and its super classes are invoked after injection.
+ * The names injected are collected by the {@link JndiPrefetcher} so that they can be looked up in
+ * JNDI when the application starts.
  *
  * @version $Revision: 1.1 $
  */
 public class Jsr250Module extends GuiceyFruitModule {
+  private JndiPrefetcher jndiPrefetcher;
 
   protected void configure() {
     super.configure();
+    // the listener uses the prefetcher of this injector even if the module is used again
+    final JndiPrefetcher jndiPrefetcher = new JndiPrefetcher();
+    this.jndiPrefetcher = jndiPrefetcher;
 
+    bind(NamedResolutionCache.class);
+    bind(JndiPrefetcher.class).toInstance(jndiPrefetcher);
     bindAnnotationInjector(Resource.class, ResourceMemberProvider.class);
+    bindInjectionPointListener(Resource.class, new InjectionPointListener<Resource>() {
+      public void hear(Resource resource, TypeLiteral<?> type, Member member) {
+        jndiPrefetcher.addName(type, member, resource.name());
+      }
+    });
 
-    bindMethodHandler(PostConstruct.class, new MethodHandler() {
-      public void afterInjection(Object injectee, Annotation annotation, Method method)
-          throws InvocationTargetException, IllegalAccessException {
-
-        method.invoke(injectee);
+    bindTypeListener(new TypeListener() {
+      public <I> void hear(TypeLiteral<I> injectableType, TypeEncounter<I> encounter) {
+        final LifecycleDescriptor descriptor = LifecycleDescriptor
+            .getDescriptor(injectableType.getRawType());
+        if (!descriptor.getPostConstructMethods().isEmpty()) {
+          encounter.register(new InjectionListener<I>() {
+            public void afterInjection(I injectee) {
+              try {
+                descriptor.postConstruct(injectee);
+              }
+              catch (InvocationTargetException ie) {
+                Throwable e = ie.getTargetException();
+                throw new ProvisionException(e.getMessage(), e);
+              }
+              catch (IllegalAccessException e) {
+                throw new ProvisionException(e.getMessage(), e);
+              }
+            }
+          });
+        }
       }
     });
 
     bind(PreDestroyCloser.class);
   }
 
+  /**
+   * Returns the prefetcher of the JNDI names injected into the members of the types encountered by
+   * the injector being configured; listeners should keep the prefetcher returned while configuring
+   * rather than calling this method later as the module may be used to configure another injector
+   */
+  protected JndiPrefetcher getJndiPrefetcher() {
+    return jndiPrefetcher;
+  }
 }
@@ -0,0 +1,187 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jsr250;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.guiceyfruit.support.InjectionPlans;
+import org.guiceyfruit.support.InjectionPlans.ClassPlan;
+import org.guiceyfruit.support.Reflectors;
+import org.guiceyfruit.support.internal.MethodKey;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * The {@link PostConstruct} and {@link PreDestroy} methods of a class, including those inherited
+ * from its super classes, in the order they should be invoked; super class methods first.
+ *
+ * Descriptors are cached per class, including for classes with no lifecycle methods. Descriptors
+ * are softly referenced and refer back to their class through its methods, so a class with
+ * lifecycle methods is only unloaded once memory pressure has cleared its descriptor.
+ *
+ * @version $Revision: 1.1 $
+ */
+final class LifecycleDescriptor {
+  private static final LifecycleDescriptor EMPTY = new LifecycleDescriptor(
+      ImmutableList.<Method>of(), ImmutableList.<Method>of());
+
+  private static final List<String> ANNOTATION_TYPE_NAMES = ImmutableList.of(
+      PostConstruct.class.getName(), PreDestroy.class.getName());
+
+  private static final LoadingCache<Class<?>, LifecycleDescriptor> CACHE = CacheBuilder
+      .newBuilder().weakKeys().softValues()
+      .build(new CacheLoader<Class<?>, LifecycleDescriptor>() {
+        public LifecycleDescriptor load(Class<?> type) {
+          return createDescriptor(type);
+        }
+      });
+
+  private final List<Method> postConstructMethods;
+  private final List<Method> preDestroyMethods;
+
+  private LifecycleDescriptor(List<Method> postConstructMethods, List<Method> preDestroyMethods) {
+    this.postConstructMethods = postConstructMethods;
+    this.preDestroyMethods = preDestroyMethods;
+  }
+
+  /** Returns the lifecycle descriptor of the given type */
+  public static LifecycleDescriptor getDescriptor(Class<?> type) {
+    try {
+      return CACHE.getUnchecked(type);
+    }
+    catch (UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw e;
+    }
+  }
+
+  public List<Method> getPostConstructMethods() {
+    return postConstructMethods;
+  }
+
+  public List<Method> getPreDestroyMethods() {
+    return preDestroyMethods;
+  }
+
+  public boolean isEmpty() {
+    return this == EMPTY;
+  }
+
+  /** Invokes the {@link PostConstruct} methods on the given object */
+  public void postConstruct(Object object)
+      throws InvocationTargetException, IllegalAccessException {
+    invoke(object, postConstructMethods);
+  }
+
+  /** Invokes the {@link PreDestroy} methods on the given object */
+  public void preDestroy(Object object) throws InvocationTargetException, IllegalAccessException {
+    invoke(object, preDestroyMethods);
+  }
+
+  protected static void invoke(Object object, List<Method> methods)
+      throws InvocationTargetException, IllegalAccessException {
+    for (Method method : methods) {
+      method.invoke(object, Reflectors.NO_ARGUMENTS);
+    }
+  }
+
+  static LifecycleDescriptor createDescriptor(Class<?> type) {
+    List<Method> postConstructMethods = Lists.newArrayList();
+    List<Method> preDestroyMethods = Lists.newArrayList();
+
+    // walk up from the class so that we can ignore methods overridden by a sub class
+    Set<MethodKey> overridden = Sets.newHashSet();
+    for (Class<?> current = type; current != null && current != Object.class;
+        current = current.getSuperclass()) {
+      ClassPlan plan = InjectionPlans.getPlan(current);
+      Method[] methods;
+      if (plan != null && plan.covers(ANNOTATION_TYPE_NAMES)) {
+        for (Method method : plan.getOverridingMethods()) {
+          addOverridable(overridden, method);
+        }
+        methods = plan.getAnnotatedMethods();
+      }
+      else {
+        methods = current.getDeclaredMethods();
+      }
+
+      // add in reverse so that the lists can be reversed into super class first order
+      for (int i = methods.length - 1; i >= 0; i--) {
+        Method method = methods[i];
+        boolean hidden = !Modifier.isPrivate(method.getModifiers())
+            && overridden.contains(new MethodKey(method));
+        if (!hidden) {
+          addLifecycleMethod(postConstructMethods, method, PostConstruct.class);
+          addLifecycleMethod(preDestroyMethods, method, PreDestroy.class);
+        }
+        addOverridable(overridden, method);
+      }
+    }
+
+    if (postConstructMethods.isEmpty() && preDestroyMethods.isEmpty()) {
+      return EMPTY;
+    }
+    Collections.reverse(postConstructMethods);
+    Collections.reverse(preDestroyMethods);
+    return new LifecycleDescriptor(ImmutableList.copyOf(postConstructMethods),
+        ImmutableList.copyOf(preDestroyMethods));
+  }
+
+  private static void addOverridable(Set<MethodKey> overridden, Method method) {
+    if (!Modifier.isPrivate(method.getModifiers())) {
+      overridden.add(new MethodKey(method));
+    }
+  }
+
+  private static void addLifecycleMethod(List<Method> methods, Method method,
+      Class<? extends Annotation> annotationType) {
+    if (method.isAnnotationPresent(annotationType)) {
+      if (method.getParameterTypes().length != 0) {
+        throw new IllegalArgumentException(
+            "Method should have no arguments for @" + annotationType.getSimpleName() + " "
+                + method);
+      }
+      methods.add(Reflectors.makeAccessible(method));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LifecycleDescriptor(postConstruct: " + postConstructMethods + " preDestroy: "
+        + preDestroyMethods + ")";
+  }
+}
@@ -18,19 +18,14 @@
 package org.guiceyfruit.jsr250;
 
 import org.guiceyfruit.support.AnnotationMemberProviderSupport;
-import org.guiceyfruit.Injectors;
 
 import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 import com.google.inject.Inject;
 import com.google.inject.TypeLiteral;
-import com.google.inject.Binding;
-import com.google.inject.Key;
+import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
-import com.google.inject.Injector;
-import com.google.inject.name.Names;
 
 import java.lang.reflect.Member;
 import java.lang.annotation.Annotation;
@@ -43,7 +38,7 @@ import java.lang.annotation.Annotation;
  */
 public abstract class NamedProviderSupport<A extends Annotation> extends AnnotationMemberProviderSupport<A> {
     @Inject
-    private Injector injector;
+    private NamedResolutionCache resolutionCache;
     private Context context;
 
     public Context getContext() {
@@ -55,19 +50,47 @@ public abstract class NamedProviderSupport<A extends Annotation> extends Annotat
         this.context = context;
     }
 
+    public NamedResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
     protected Object provideObjectFromNamedBindingOrJndi(TypeLiteral<?> requiredType, String name) {
-        Binding<?> binding = Injectors.getBinding(injector, Key.get(requiredType, Names.named(name)));
-        if (binding != null) {
-            return binding.getProvider().get();
+        Provider<?> provider = resolutionCache.getNamedBindingProvider(requiredType, name);
+        if (provider != null) {
+            return provider.get();
+        }
+        return lookupInJndi(name);
+    }
+
+    /**
+     * Resolves the provider of a named binding of the required type once, falling back to
+     * looking up the name in JNDI on each request if there is no such binding
+     */
+    protected Provider<?> resolveNamedBindingOrJndi(TypeLiteral<?> requiredType, final String name) {
+        Provider<?> provider = resolutionCache.getNamedBindingProvider(requiredType, name);
+        if (provider != null) {
+            return provider;
         }
+        return new Provider<Object>() {
+            public Object get() {
+                return lookupInJndi(name);
+            }
 
+            @Override
+            public String toString() {
+                return "JndiProvider(" + name + ")";
+            }
+        };
+    }
+
+    protected Object lookupInJndi(String name) {
         // TODO we may want to try avoid the dependency on JNDI classes
         // for better operation in GAE?
         try {
             if (context == null) {
-                context = new InitialContext();
+                context = resolutionCache.getDefaultContext();
             }
-            return context.lookup(name);
+            return resolutionCache.lookupInJndi(context, name);
         }
         catch (NamingException e) {
             throw new ProvisionException("Failed to find name '" + name + "' in JNDI. Cause: " + e, e);
@@ -78,6 +101,14 @@ public abstract class NamedProviderSupport<A extends Annotation> extends Annotat
      * if no valid name is present on the annotation then use the member name
      */
     protected String getValueName(String nameFromAnnotation, Member member) {
+        return getName(nameFromAnnotation, member);
+    }
+
+    /**
+     * Returns the name to inject into the member; the name from the annotation or if there is none,
+     * the member name
+     */
+    public static String getName(String nameFromAnnotation, Member member) {
         if (nameFromAnnotation == null || nameFromAnnotation.length() == 0) {
             nameFromAnnotation = member.getName();
         }
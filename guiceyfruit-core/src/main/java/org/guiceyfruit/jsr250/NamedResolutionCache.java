@@ -0,0 +1,238 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jsr250;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+import org.guiceyfruit.Injectors;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+
+/**
+ * Caches how the named values injected by {@link NamedProviderSupport} are resolved so that they
+ * are shared by all of the providers of an injector, such as for {@link javax.annotation.Resource}
+ * and <code>@EJB</code> injection.
+ *
+ * Whether or not there is a named binding for a type and name is remembered for the lifetime of
+ * the injector, so names which are not bound only pay for the Guice lookup once. Objects looked up
+ * in JNDI, and names which could not be found in JNDI, are only cached if a time to live is
+ * configured using the {@link #JNDI_TIME_TO_LIVE} and {@link #JNDI_MISS_TIME_TO_LIVE} named
+ * constants, as JNDI may return a new object for each lookup such as for stateful session beans.
+ * Objects which are {@link #prefetch prefetched} are used by the next lookup of their name even
+ * if JNDI objects are not cached. JNDI objects and failures are cached for each context, which is
+ * only weakly referenced so that the entries of a context are discarded along with it.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class NamedResolutionCache {
+  /** The name of the constant of the milliseconds to cache objects looked up in JNDI */
+  public static final String JNDI_TIME_TO_LIVE = "org.guiceyfruit.jsr250.jndiTimeToLive";
+  /** The name of the constant of the milliseconds to cache names which are not found in JNDI */
+  public static final String JNDI_MISS_TIME_TO_LIVE = "org.guiceyfruit.jsr250.jndiMissTimeToLive";
+
+  private final ConcurrentMap<Key<?>, Optional<Provider<?>>> namedBindings
+      = new ConcurrentHashMap<Key<?>, Optional<Provider<?>>>();
+  private final ConcurrentMap<Context, ConcurrentMap<String, JndiEntry>> jndiEntries
+      = new MapMaker().weakKeys().makeMap();
+  @Inject
+  private Injector injector;
+  private long jndiTimeToLive;
+  private Context defaultContext;
+  private long jndiMissTimeToLive;
+
+  public long getJndiTimeToLive() {
+    return jndiTimeToLive;
+  }
+
+  @Inject(optional = true)
+  public void setJndiTimeToLive(@Named(JNDI_TIME_TO_LIVE) long jndiTimeToLive) {
+    this.jndiTimeToLive = jndiTimeToLive;
+  }
+
+  public long getJndiMissTimeToLive() {
+    return jndiMissTimeToLive;
+  }
+
+  @Inject(optional = true)
+  public void setJndiMissTimeToLive(@Named(JNDI_MISS_TIME_TO_LIVE) long jndiMissTimeToLive) {
+    this.jndiMissTimeToLive = jndiMissTimeToLive;
+  }
+
+  /** Returns the JNDI context shared by the providers which do not have a context injected */
+  public synchronized Context getDefaultContext() throws NamingException {
+    if (defaultContext == null) {
+      defaultContext = new InitialContext();
+    }
+    return defaultContext;
+  }
+
+  /**
+   * Returns the provider of the binding of the type with the {@link Named} annotation of the
+   * given name or null if there is no such binding
+   */
+  public Provider<?> getNamedBindingProvider(TypeLiteral<?> requiredType, String name) {
+    Key<?> key = Key.get(requiredType, Names.named(name));
+    Optional<Provider<?>> answer = namedBindings.get(key);
+    if (answer == null) {
+      Binding<?> binding = Injectors.getBinding(injector, key);
+      Provider<?> provider = binding != null ? binding.getProvider() : null;
+      answer = Optional.<Provider<?>>fromNullable(provider);
+      namedBindings.putIfAbsent(key, answer);
+    }
+    return answer.orNull();
+  }
+
+  /**
+   * Looks up the name in the JNDI context, returning the cached object or rethrowing the cached
+   * failure if the name was looked up in the same context within its time to live
+   */
+  public Object lookupInJndi(Context context, String name) throws NamingException {
+    long now = System.nanoTime();
+    ConcurrentMap<String, JndiEntry> entries = jndiEntries.get(context);
+    JndiEntry entry = entries != null ? entries.get(name) : null;
+    if (entry != null) {
+      if (!entry.isValid(now)) {
+        entries.remove(name, entry);
+      }
+      else if (!entry.isOnce() || entries.remove(name, entry)) {
+        // a prefetched object which is not to be cached is only used by the first lookup
+        return entry.getValue();
+      }
+    }
+    return lookupInJndi(context, name, now, false);
+  }
+
+  /**
+   * Looks up the name in the JNDI context ahead of its first injection so that it is used by the
+   * next lookup of the name in the same context, even if JNDI objects are not cached
+   */
+  public void prefetch(Context context, String name) throws NamingException {
+    lookupInJndi(context, name, System.nanoTime(), true);
+  }
+
+  private Object lookupInJndi(Context context, String name, long now, boolean prefetch)
+      throws NamingException {
+    Object value;
+    try {
+      value = context.lookup(name);
+    }
+    catch (NamingException e) {
+      if (jndiMissTimeToLive > 0) {
+        getJndiEntries(context).put(name, new JndiEntry(null, e,
+            now + toNanos(jndiMissTimeToLive), false));
+      }
+      throw e;
+    }
+    if (jndiTimeToLive > 0) {
+      getJndiEntries(context).put(name, new JndiEntry(value, null,
+          now + toNanos(jndiTimeToLive), false));
+    }
+    else if (prefetch) {
+      getJndiEntries(context).put(name, new JndiEntry(value, null, now, true));
+    }
+    return value;
+  }
+
+  private ConcurrentMap<String, JndiEntry> getJndiEntries(Context context) {
+    ConcurrentMap<String, JndiEntry> answer = jndiEntries.get(context);
+    if (answer == null) {
+      ConcurrentMap<String, JndiEntry> newEntries = new ConcurrentHashMap<String, JndiEntry>();
+      answer = jndiEntries.putIfAbsent(context, newEntries);
+      if (answer == null) {
+        answer = newEntries;
+      }
+    }
+    return answer;
+  }
+
+  /** Discards any cached JNDI object or failure for the name in all of the contexts */
+  public void invalidate(String name) {
+    for (ConcurrentMap<String, JndiEntry> entries : jndiEntries.values()) {
+      entries.remove(name);
+    }
+  }
+
+  /** Discards all of the cached JNDI objects and failures */
+  public void invalidateAll() {
+    jndiEntries.clear();
+  }
+
+  private static long toNanos(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /** The result of looking up a name in a JNDI context */
+  private static class JndiEntry {
+    private final Object value;
+    private final NamingException failure;
+    private final long expiryTime;
+    private final boolean once;
+
+    JndiEntry(Object value, NamingException failure, long expiryTime, boolean once) {
+      this.value = value;
+      this.failure = failure;
+      this.expiryTime = expiryTime;
+      this.once = once;
+    }
+
+    boolean isValid(long now) {
+      return once || now - expiryTime < 0;
+    }
+
+    /** Returns true if the entry is only to be used by a single lookup */
+    boolean isOnce() {
+      return once;
+    }
+
+    /**
+     * Returns the cached object or throws a new exception for the cached failure, with the failure
+     * as its root cause, so that each lookup has its own stack trace
+     */
+    Object getValue() throws NamingException {
+      if (failure != null) {
+        NamingException e = failure instanceof NameNotFoundException
+            ? new NameNotFoundException(failure.getExplanation())
+            : new NamingException(failure.getExplanation());
+        e.setResolvedName(failure.getResolvedName());
+        e.setRemainingName(failure.getRemainingName());
+        e.setRootCause(failure);
+        throw e;
+      }
+      return value;
+    }
+  }
+}
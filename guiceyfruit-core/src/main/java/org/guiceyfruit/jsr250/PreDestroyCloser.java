@@ -17,9 +17,7 @@
 package org.guiceyfruit.jsr250;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import javax.annotation.PreDestroy;
-import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.TypedCloser;
 
 /**
  * Supports the {@link javax.annotation.PreDestroy} annotation lifecycle from JSR250.
@@ -29,22 +27,21 @@ import org.guiceyfruit.support.Closer;
  * @author james.strachan@gmail.com (James Strachan)
  * @version $Revision: 1.1 $
  */
-public class PreDestroyCloser implements Closer {
+public class PreDestroyCloser implements TypedCloser {
 
-  private AnnotatedMethodCache methodCache = new AnnotatedMethodCache(PreDestroy.class);
+  public boolean isCloseable(Class<?> type) {
+    return !LifecycleDescriptor.getDescriptor(type).getPreDestroyMethods().isEmpty();
+  }
 
   public void close(Object object) throws Throwable {
-    Class<? extends Object> type = object.getClass();
-    Method method = methodCache.getMethod(type);
-    if (method != null) {
-      if (method != null) {
-        try {
-          method.invoke(object);
-        }
-        catch (InvocationTargetException e) {
-          throw e.getTargetException();
-        }
+    LifecycleDescriptor descriptor = LifecycleDescriptor.getDescriptor(object.getClass());
+    if (!descriptor.getPreDestroyMethods().isEmpty()) {
+      try {
+        descriptor.preDestroy(object);
+      }
+      catch (InvocationTargetException e) {
+        throw e.getTargetException();
       }
     }
   }
-}
\ No newline at end of file
+}
@@ -22,6 +22,7 @@ import com.google.inject.Binding;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
@@ -55,4 +56,11 @@ public class ResourceMemberProvider extends NamedProviderSupport<Resource> {
         return provideObjectFromNamedBindingOrJndi(requiredType, name);
     }
 
+    @Override
+    protected Provider<?> resolve(Resource resource, Member member, TypeLiteral<?> requiredType,
+                                  Class<?> memberType, Annotation[] annotations) {
+        String name = getValueName(resource.name(), member);
+        return resolveNamedBindingOrJndi(requiredType, name);
+    }
+
 }
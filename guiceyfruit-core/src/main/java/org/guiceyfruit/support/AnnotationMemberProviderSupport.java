@@ -18,23 +18,39 @@
 
 package org.guiceyfruit.support;
 
+import com.google.common.base.Supplier;
+import com.google.inject.Provider;
 import com.google.inject.TypeLiteral;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
 
 /**
  * A useful base class for implementors meaning they only have to implement a single method whether
- * a Field or Method parameter is being injected
+ * a Field or Method parameter is being injected.
+ *
+ * Members declared as {@link Provider Provider&lt;T&gt;} or {@link Supplier Supplier&lt;T&gt;} are
+ * resolved as type <code>T</code> when they are injected, so that missing dependencies are still
+ * reported on injection, but their values are only provided when they are used. Like any Guice
+ * provider, a {@link Provider} member provides a value on each call, whereas a {@link Supplier}
+ * member provides its value on its first use and then returns the same value.
  *
  * @version $Revision: 1.1 $
  */
 public abstract class AnnotationMemberProviderSupport<A extends Annotation>
-    implements AnnotationMemberProvider<A> {
+    implements AnnotationMemberResolver<A> {
 
   public Object provide(A annotation, TypeLiteral<?> type, Field field) {
     TypeLiteral<?> requiredType = type.getFieldType(field);
+    TypeLiteral<?> elementType = getDeferredElementType(requiredType);
+    if (elementType != null) {
+      return createDeferredValue(requiredType,
+          resolve(annotation, field, elementType, elementType.getRawType(), null));
+    }
     return provide(annotation, field, requiredType, field.getType(), null);
   }
 
@@ -43,10 +59,138 @@ public abstract class AnnotationMemberProviderSupport<A extends Annotation>
 
     TypeLiteral<?> requiredType = type.getParameterTypes(method).get(parameterIndex);
     Annotation[] annotations = method.getParameterAnnotations()[parameterIndex];
+    TypeLiteral<?> elementType = getDeferredElementType(requiredType);
+    if (elementType != null) {
+      return createDeferredValue(requiredType,
+          resolve(annotation, method, elementType, elementType.getRawType(), annotations));
+    }
     return provide(annotation, method, requiredType, method.getParameterTypes()[parameterIndex], annotations);
   }
 
   /** The default method to create a value for the named member of the requested type */
   protected abstract Object provide(A annotation, Member member, TypeLiteral<?> requiredType,
       Class<?> memberType, Annotation[] annotations);
+
+  public Provider<?> resolve(A annotation, TypeLiteral<?> type, Field field) {
+    TypeLiteral<?> requiredType = type.getFieldType(field);
+    TypeLiteral<?> elementType = getDeferredElementType(requiredType);
+    if (elementType != null) {
+      return new DeferredValueProvider(requiredType,
+          resolve(annotation, field, elementType, elementType.getRawType(), null));
+    }
+    return resolve(annotation, field, requiredType, field.getType(), null);
+  }
+
+  public Provider<?> resolve(A annotation, TypeLiteral<?> type, Method method,
+      Class<?> parameterType, int parameterIndex) {
+
+    TypeLiteral<?> requiredType = type.getParameterTypes(method).get(parameterIndex);
+    Annotation[] annotations = method.getParameterAnnotations()[parameterIndex];
+    TypeLiteral<?> elementType = getDeferredElementType(requiredType);
+    if (elementType != null) {
+      return new DeferredValueProvider(requiredType,
+          resolve(annotation, method, elementType, elementType.getRawType(), annotations));
+    }
+    return resolve(annotation, method, requiredType, method.getParameterTypes()[parameterIndex],
+        annotations);
+  }
+
+  /**
+   * Resolves the provider of values for the named member of the requested type. The default
+   * implementation invokes {@link #provide(Annotation, Member, TypeLiteral, Class, Annotation[])}
+   * on each injection; derived classes can override this method to perform any lookups once.
+   */
+  protected Provider<?> resolve(final A annotation, final Member member,
+      final TypeLiteral<?> requiredType, final Class<?> memberType,
+      final Annotation[] annotations) {
+    return new Provider<Object>() {
+      public Object get() {
+        return provide(annotation, member, requiredType, memberType, annotations);
+      }
+
+      @Override
+      public String toString() {
+        return "Provider(" + member + ")";
+      }
+    };
+  }
+
+  /**
+   * Returns the type <code>T</code> if the member type is a {@link Provider Provider&lt;T&gt;} or
+   * {@link Supplier Supplier&lt;T&gt;} whose value should be resolved on demand, otherwise null
+   */
+  protected TypeLiteral<?> getDeferredElementType(TypeLiteral<?> requiredType) {
+    Class<?> rawType = requiredType.getRawType();
+    if (rawType != Provider.class && rawType != Supplier.class) {
+      return null;
+    }
+    Type type = requiredType.getType();
+    if (!(type instanceof ParameterizedType)) {
+      return null;
+    }
+    Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+    if (elementType instanceof WildcardType) {
+      elementType = ((WildcardType) elementType).getUpperBounds()[0];
+    }
+    return TypeLiteral.get(elementType);
+  }
+
+  /**
+   * Returns the value to inject into a {@link Provider} or {@link Supplier} member which uses the
+   * given provider of its element type
+   */
+  static Object createDeferredValue(TypeLiteral<?> requiredType, Provider<?> provider) {
+    if (requiredType.getRawType() == Supplier.class) {
+      return new DeferredValue(provider);
+    }
+    return provider;
+  }
+
+  /** Creates the value of a deferred member for each object being injected */
+  static class DeferredValueProvider implements Provider<Object> {
+    private final TypeLiteral<?> requiredType;
+    private final Provider<?> provider;
+
+    DeferredValueProvider(TypeLiteral<?> requiredType, Provider<?> provider) {
+      this.requiredType = requiredType;
+      this.provider = provider;
+    }
+
+    public Object get() {
+      return createDeferredValue(requiredType, provider);
+    }
+
+    @Override
+    public String toString() {
+      return provider.toString();
+    }
+  }
+
+  /** The value injected into a {@link Supplier} member which is only provided on its first use */
+  static class DeferredValue implements Supplier<Object> {
+    private final Provider<?> provider;
+    private volatile boolean provided;
+    private Object value;
+
+    DeferredValue(Provider<?> provider) {
+      this.provider = provider;
+    }
+
+    public Object get() {
+      if (!provided) {
+        synchronized (this) {
+          if (!provided) {
+            value = provider.get();
+            provided = true;
+          }
+        }
+      }
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return provider.toString();
+    }
+  }
 }
@@ -0,0 +1,44 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+
+/**
+ * An {@link AnnotationMemberProvider} which can resolve an injection point once into a
+ * {@link Provider} which is then used for every subsequent injection into that member, avoiding
+ * repeating any lookups on each injected instance.
+ *
+ * @version $Revision: 1.1 $
+ */
+public interface AnnotationMemberResolver<A extends Annotation>
+    extends AnnotationMemberProvider<A> {
+
+  /** Returns the provider of the values to be injected into the given annotated field */
+  Provider<?> resolve(A annotation, TypeLiteral<?> type, Field field);
+
+  /** Returns the provider of the values to be injected into the given annotated method parameter */
+  Provider<?> resolve(A annotation, TypeLiteral<?> type, Method method, Class<?> parameterType,
+      int parameterIndex);
+}
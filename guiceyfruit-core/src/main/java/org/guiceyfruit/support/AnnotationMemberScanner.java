@@ -0,0 +1,379 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.guiceyfruit.support.InjectionPlans.ClassPlan;
+import org.guiceyfruit.support.internal.MethodKey;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.MembersInjector;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.TypeLiteral;
+import com.google.inject.spi.InjectionListener;
+import com.google.inject.spi.TypeEncounter;
+import com.google.inject.spi.TypeListener;
+
+/**
+ * A single {@link TypeListener} shared by all of the annotation injectors and method handlers
+ * registered on a {@link GuiceyFruitModule} so that the fields and methods of each injectable type
+ * are only walked once no matter how many annotations are bound. Any other listeners of every
+ * injectable type are notified by this listener too, rather than being bound separately.
+ *
+ * @version $Revision: 1.1 $
+ */
+class AnnotationMemberScanner implements TypeListener {
+  private final GuiceyFruitModule module;
+  private final List<AnnotationInjector<?>> annotationInjectors = Lists.newArrayList();
+  private final List<AnnotationMethodHandler<?>> methodHandlers = Lists.newArrayList();
+  private final Set<String> injectorAnnotationNames = Sets.newHashSet();
+  private final Set<String> methodHandlerAnnotationNames = Sets.newHashSet();
+  private final Map<Class<? extends Annotation>, List<InjectionPointListener<?>>>
+      injectionPointListeners = Maps.newHashMap();
+  private final List<TypeListener> typeListeners = Lists.newArrayList();
+
+  AnnotationMemberScanner(GuiceyFruitModule module) {
+    this.module = module;
+  }
+
+  <A extends Annotation> void addAnnotationInjector(Class<A> annotationType,
+      EncounterProvider<AnnotationMemberProvider> memberProviderProvider) {
+    annotationInjectors.add(new AnnotationInjector<A>(annotationType, memberProviderProvider));
+    injectorAnnotationNames.add(annotationType.getName());
+  }
+
+  <A extends Annotation> void addMethodHandler(Class<A> annotationType,
+      EncounterProvider<MethodHandler> methodHandlerProvider) {
+    methodHandlers.add(new AnnotationMethodHandler<A>(annotationType, methodHandlerProvider));
+    methodHandlerAnnotationNames.add(annotationType.getName());
+  }
+
+  <A extends Annotation> void addInjectionPointListener(Class<A> annotationType,
+      InjectionPointListener<? super A> listener) {
+    List<InjectionPointListener<?>> list = injectionPointListeners.get(annotationType);
+    if (list == null) {
+      list = Lists.newArrayList();
+      injectionPointListeners.put(annotationType, list);
+    }
+    list.add(listener);
+  }
+
+  void addTypeListener(TypeListener listener) {
+    typeListeners.add(listener);
+  }
+
+  public <I> void hear(TypeLiteral<I> injectableType, TypeEncounter<I> encounter) {
+    if (!annotationInjectors.isEmpty()) {
+      scanMembers(injectableType, encounter);
+    }
+
+    // post injection hooks are only looked up on the methods declared on the injectable type
+    if (!methodHandlers.isEmpty()) {
+      Class<?> type = injectableType.getRawType();
+      ClassPlan plan = InjectionPlans.getPlan(type);
+      Method[] methods = (plan != null && plan.covers(methodHandlerAnnotationNames))
+          ? plan.getAnnotatedMethods() : type.getDeclaredMethods();
+      for (Method method : methods) {
+        for (AnnotationMethodHandler<?> methodHandler : methodHandlers) {
+          methodHandler.bind(encounter, method);
+        }
+      }
+    }
+
+    for (TypeListener typeListener : typeListeners) {
+      typeListener.hear(injectableType, encounter);
+    }
+  }
+
+  protected <I> void scanMembers(TypeLiteral<I> injectableType, TypeEncounter<I> encounter) {
+    Map<MethodKey, Method> boundMethods = Maps.newHashMap();
+
+    TypeLiteral<?> startType = injectableType;
+    while (true) {
+      Class<?> type = startType.getRawType();
+      if (type == Object.class) {
+        break;
+      }
+
+      // use the members listed in the plan generated at compile time if there is one
+      ClassPlan plan = InjectionPlans.getPlan(type);
+      if (plan != null && plan.covers(injectorAnnotationNames)) {
+        for (Field field : plan.getAnnotatedFields()) {
+          bindField(encounter, startType, field);
+        }
+        for (Method method : plan.getAnnotatedMethods()) {
+          bindMethod(encounter, startType, method, boundMethods);
+        }
+        // overriding methods hide any annotated methods on the super classes
+        for (Method method : plan.getOverridingMethods()) {
+          MethodKey key = new MethodKey(method);
+          if (boundMethods.get(key) == null) {
+            boundMethods.put(key, method);
+          }
+        }
+      }
+      else {
+        Field[] fields = type.getDeclaredFields();
+        for (Field field : fields) {
+          bindField(encounter, startType, field);
+        }
+
+        Method[] methods = type.getDeclaredMethods();
+        for (Method method : methods) {
+          bindMethod(encounter, startType, method, boundMethods);
+        }
+      }
+
+      Class<?> supertype = type.getSuperclass();
+      if (supertype == Object.class) {
+        break;
+      }
+      startType = startType.getSupertype(supertype);
+    }
+  }
+
+  private <I> void bindField(TypeEncounter<I> encounter, TypeLiteral<?> type, Field field) {
+    for (AnnotationInjector<?> annotationInjector : annotationInjectors) {
+      annotationInjector.bindField(encounter, type, field);
+    }
+  }
+
+  private <I> void bindMethod(TypeEncounter<I> encounter, TypeLiteral<?> type, Method method,
+      Map<MethodKey, Method> boundMethods) {
+    MethodKey key = new MethodKey(method);
+    if (boundMethods.get(key) == null) {
+      boundMethods.put(key, method);
+      for (AnnotationInjector<?> annotationInjector : annotationInjectors) {
+        annotationInjector.bindMethod(encounter, type, method);
+      }
+    }
+  }
+
+  /** Injects the fields and methods annotated with a given annotation */
+  class AnnotationInjector<A extends Annotation> {
+    private final Class<A> annotationType;
+    private final EncounterProvider<AnnotationMemberProvider> memberProviderProvider;
+    private Provider<? extends AnnotationMemberProvider> providerProvider;
+
+    AnnotationInjector(Class<A> annotationType,
+        EncounterProvider<AnnotationMemberProvider> memberProviderProvider) {
+      this.annotationType = annotationType;
+      this.memberProviderProvider = memberProviderProvider;
+    }
+
+    /** Notifies the injection point listeners of the annotation of an annotated member */
+    @SuppressWarnings("unchecked")
+    protected void fireInjectionPoint(A annotation, TypeLiteral<?> type, Member member) {
+      List<InjectionPointListener<?>> listeners = injectionPointListeners.get(annotationType);
+      if (listeners != null) {
+        for (InjectionPointListener<?> listener : listeners) {
+          ((InjectionPointListener<A>) listener).hear(annotation, type, member);
+        }
+      }
+    }
+
+    protected Provider<? extends AnnotationMemberProvider> getProviderProvider(
+        TypeEncounter<?> encounter) {
+      if (providerProvider == null) {
+        providerProvider = memberProviderProvider.get(encounter);
+      }
+      return providerProvider;
+    }
+
+    protected <I> void bindMethod(final TypeEncounter<I> encounter, final TypeLiteral<?> type,
+        final Method method) {
+      // TODO lets exclude methods with @Inject?
+      final A annotation = method.getAnnotation(annotationType);
+      if (annotation != null) {
+        fireInjectionPoint(annotation, type, method);
+        final Provider<? extends AnnotationMemberProvider> providerProvider
+            = getProviderProvider(encounter);
+
+        // resolve the generic parameter types and accessibility once per type rather than
+        // on every injection
+        final int size = method.getParameterTypes().length;
+        final Class<?>[] paramTypes = new Class<?>[size];
+        for (int i = 0; i < size; i++) {
+          paramTypes[i] = module.getParameterType(type, method, i);
+        }
+        final boolean[] nullAllowed = new boolean[size];
+        Reflectors.makeAccessible(method);
+
+        encounter.register(new MembersInjector<I>() {
+          // the member provider is only available once the injector has been created so
+          // resolvers are asked to resolve the injection point on its first injection
+          private volatile Provider<?>[] resolvedProviders;
+
+          public void injectMembers(I injectee) {
+            Object[] values = new Object[size];
+            Provider<?>[] providers = resolvedProviders;
+            if (providers != null) {
+              for (int i = 0; i < size; i++) {
+                Object value = providers[i].get();
+                module.checkInjectedValueType(value, paramTypes[i], encounter);
+                if (value == null && !nullAllowed[i]) {
+                  return;
+                }
+                values[i] = value;
+              }
+            }
+            else {
+              AnnotationMemberProvider provider = providerProvider.get();
+              if (provider instanceof AnnotationMemberResolver) {
+                resolvedProviders = resolve((AnnotationMemberResolver) provider);
+                injectMembers(injectee);
+                return;
+              }
+              for (int i = 0; i < size; i++) {
+                Class<?> paramType = paramTypes[i];
+                Object value = provider.provide(annotation, type, method, paramType, i);
+                module.checkInjectedValueType(value, paramType, encounter);
+
+                // if we have a null value then assume the injection point cannot be satisfied
+                // which is the spring @Autowired way of doing things
+                if (value == null && !provider
+                    .isNullParameterAllowed(annotation, method, paramType, i)) {
+                  return;
+                }
+                values[i] = value;
+              }
+            }
+            try {
+              method.invoke(injectee, values);
+            }
+            catch (IllegalAccessException e) {
+              throw new ProvisionException("Failed to inject method " + method + ". Reason: " + e,
+                  e);
+            }
+            catch (InvocationTargetException ie) {
+              Throwable e = ie.getTargetException();
+              throw new ProvisionException("Failed to inject method " + method + ". Reason: " + e,
+                  e);
+            }
+          }
+
+          protected Provider<?>[] resolve(AnnotationMemberResolver resolver) {
+            Provider<?>[] answer = new Provider<?>[size];
+            for (int i = 0; i < size; i++) {
+              answer[i] = resolver.resolve(annotation, type, method, paramTypes[i], i);
+              nullAllowed[i] = resolver.isNullParameterAllowed(annotation, method, paramTypes[i], i);
+            }
+            return answer;
+          }
+        });
+      }
+    }
+
+    protected <I> void bindField(final TypeEncounter<I> encounter, final TypeLiteral<?> type,
+        final Field field) {
+      // TODO lets exclude fields with @Inject?
+      final A annotation = field.getAnnotation(annotationType);
+      if (annotation != null) {
+        fireInjectionPoint(annotation, type, field);
+        final Provider<? extends AnnotationMemberProvider> providerProvider
+            = getProviderProvider(encounter);
+
+        final Class<?> fieldType = field.getType();
+        Reflectors.makeAccessible(field);
+
+        encounter.register(new InjectionListener<I>() {
+          // the member provider is only available once the injector has been created so
+          // resolvers are asked to resolve the injection point on its first injection
+          private volatile Provider<?> resolvedProvider;
+
+          public void afterInjection(I injectee) {
+            Object value;
+            Provider<?> resolved = resolvedProvider;
+            if (resolved != null) {
+              value = resolved.get();
+            }
+            else {
+              AnnotationMemberProvider provider = providerProvider.get();
+              if (provider instanceof AnnotationMemberResolver) {
+                resolved = ((AnnotationMemberResolver) provider).resolve(annotation, type, field);
+                resolvedProvider = resolved;
+                value = resolved.get();
+              }
+              else {
+                value = provider.provide(annotation, type, field);
+              }
+            }
+            module.checkInjectedValueType(value, fieldType, encounter);
+
+            try {
+              field.set(injectee, value);
+            }
+            catch (IllegalAccessException e) {
+              throw new ProvisionException("Failed to inject field " + field + ". Reason: " + e,
+                  e);
+            }
+          }
+        });
+      }
+    }
+  }
+
+  /** Invokes a {@link MethodHandler} on the methods annotated with a given annotation */
+  class AnnotationMethodHandler<A extends Annotation> {
+    private final Class<A> annotationType;
+    private final EncounterProvider<MethodHandler> methodHandlerProvider;
+
+    AnnotationMethodHandler(Class<A> annotationType,
+        EncounterProvider<MethodHandler> methodHandlerProvider) {
+      this.annotationType = annotationType;
+      this.methodHandlerProvider = methodHandlerProvider;
+    }
+
+    protected <I> void bind(TypeEncounter<I> encounter, final Method method) {
+      final A annotation = method.getAnnotation(annotationType);
+      if (annotation != null) {
+        final Provider<? extends MethodHandler> provider = methodHandlerProvider.get(encounter);
+        Reflectors.makeAccessible(method);
+
+        encounter.register(new InjectionListener<I>() {
+          public void afterInjection(I injectee) {
+
+            MethodHandler methodHandler = provider.get();
+            try {
+              methodHandler.afterInjection(injectee, annotation, method);
+            }
+            catch (InvocationTargetException ie) {
+              Throwable e = ie.getTargetException();
+              throw new ProvisionException(e.getMessage(), e);
+            }
+            catch (IllegalAccessException e) {
+              throw new ProvisionException(e.getMessage(), e);
+            }
+          }
+        });
+      }
+    }
+  }
+}
@@ -19,17 +19,26 @@
 package org.guiceyfruit.support;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 
 /**
- * A Composite implementation of {@link Closer}
+ * A Composite implementation of {@link Closer} which only passes objects to the {@link
+ * TypedCloser} instances which apply to the class of the object, caching the closers to use for
+ * each class.
  *
  * @version $Revision: 1.1 $
  * @author james.strachan@gmail.com (James Strachan)
  */
-public class CompositeCloser implements Closer {
+public class CompositeCloser implements TypedCloser {
+  private static final Closer[] NO_CLOSERS = new Closer[0];
+
   private final Iterable<Closer> closers;
+  private final Map<Class<?>, Closer[]> closersByType = new MapMaker().weakKeys().makeMap();
 
   /**
    * Returns a {@link Closer} for the given lists of closer strategies
@@ -40,7 +49,10 @@ public class CompositeCloser implements Closer {
       return null;
     }
     if (closers.size() == 1) {
-      return Iterables.getOnlyElement(closers);
+      Closer closer = Iterables.getOnlyElement(closers);
+      if (!(closer instanceof TypedCloser)) {
+        return closer;
+      }
     }
     return new CompositeCloser(closers);
   }
@@ -50,8 +62,29 @@ public class CompositeCloser implements Closer {
   }
 
   public void close(Object object) throws Throwable {
-    for (Closer closer : closers) {
+    for (Closer closer : getClosers(object.getClass())) {
       closer.close(object);
     }
   }
+
+  public boolean isCloseable(Class<?> type) {
+    return getClosers(type).length > 0;
+  }
+
+  /** Returns the closers which apply to the given class */
+  protected Closer[] getClosers(Class<?> type) {
+    // if we are invoked concurrently it doesn't matter as the same closers will be found
+    Closer[] answer = closersByType.get(type);
+    if (answer == null) {
+      List<Closer> list = Lists.newArrayList();
+      for (Closer closer : closers) {
+        if (!(closer instanceof TypedCloser) || ((TypedCloser) closer).isCloseable(type)) {
+          list.add(closer);
+        }
+      }
+      answer = list.isEmpty() ? NO_CLOSERS : list.toArray(new Closer[list.size()]);
+      closersByType.put(type, answer);
+    }
+    return answer;
+  }
 }
@@ -22,29 +22,22 @@ import static com.google.inject.matcher.Matchers.any;
 import static org.guiceyfruit.support.EncounterProvider.encounterProvider;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.guiceyfruit.Configures;
-import org.guiceyfruit.support.internal.MethodKey;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.inject.AbstractModule;
+import com.google.inject.Binder;
 import com.google.inject.Key;
 import com.google.inject.MembersInjector;
-import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
 import com.google.inject.TypeLiteral;
 import com.google.inject.binder.LinkedBindingBuilder;
 import com.google.inject.matcher.AbstractMatcher;
 import com.google.inject.name.Names;
-import com.google.inject.spi.InjectionListener;
 import com.google.inject.spi.TypeEncounter;
 import com.google.inject.spi.TypeListener;
 
@@ -54,8 +47,13 @@ import com.google.inject.spi.TypeListener;
  * @version $Revision: 1.1 $
  */
 public abstract class GuiceyFruitModule extends AbstractModule {
+  private AnnotationMemberScanner memberScanner;
+  private Binder memberScannerBinder;
 
   protected void configure() {
+    // lets record which objects get created so only those are closed
+    install(ProvisionTracker.module());
+
     // lets find all of the configures methods
     List<Method> configureMethods = getConfiguresMethods();
     if (!configureMethods.isEmpty()) {
@@ -73,6 +71,7 @@ public abstract class GuiceyFruitModule extends AbstractModule {
               "Too many arguments " + size + " on @Configures method " + method);
         }
         final Class<?> paramType = getParameterType(type, method, 0);
+        Reflectors.makeAccessible(method);
 
         bindListener(new AbstractMatcher<TypeLiteral<?>>() {
           public boolean matches(TypeLiteral<?> typeLiteral) {
@@ -84,7 +83,6 @@ public abstract class GuiceyFruitModule extends AbstractModule {
               public void injectMembers(I injectee) {
                 // lets invoke the configures method
                 try {
-                  method.setAccessible(true);
                   method.invoke(moduleInstance, injectee);
                 }
                 catch (IllegalAccessException e) {
@@ -148,35 +146,7 @@ public abstract class GuiceyFruitModule extends AbstractModule {
   private <A extends Annotation> void bindMethodHandler(final Class<A> annotationType,
       final EncounterProvider<MethodHandler> encounterProvider) {
 
-    bindListener(any(), new TypeListener() {
-      public <I> void hear(TypeLiteral<I> injectableType, TypeEncounter<I> encounter) {
-        Class<? super I> type = injectableType.getRawType();
-        Method[] methods = type.getDeclaredMethods();
-        for (final Method method : methods) {
-          final A annotation = method.getAnnotation(annotationType);
-          if (annotation != null) {
-            final Provider<? extends MethodHandler> provider = encounterProvider.get(encounter);
-
-            encounter.register(new InjectionListener<I>() {
-              public void afterInjection(I injectee) {
-
-                MethodHandler methodHandler = provider.get();
-                try {
-                  methodHandler.afterInjection(injectee, annotation, method);
-                }
-                catch (InvocationTargetException ie) {
-                  Throwable e = ie.getTargetException();
-                  throw new ProvisionException(e.getMessage(), e);
-                }
-                catch (IllegalAccessException e) {
-                  throw new ProvisionException(e.getMessage(), e);
-                }
-              }
-            });
-          }
-        }
-      }
-    });
+    getMemberScanner().addMethodHandler(annotationType, encounterProvider);
   }
 
   /**
@@ -230,119 +200,47 @@ public abstract class GuiceyFruitModule extends AbstractModule {
   private <A extends Annotation> void bindAnnotationInjector(final Class<A> annotationType,
       final EncounterProvider<AnnotationMemberProvider> memberProviderProvider) {
 
-    bindListener(any(), new TypeListener() {
-      Provider<? extends AnnotationMemberProvider> providerProvider;
-
-      public <I> void hear(TypeLiteral<I> injectableType, TypeEncounter<I> encounter) {
-
-        Set<Field> boundFields = Sets.newHashSet();
-        Map<MethodKey, Method> boundMethods = Maps.newHashMap();
-
-        TypeLiteral<?> startType = injectableType;
-        while (true) {
-          Class<?> type = startType.getRawType();
-          if (type == Object.class) {
-            break;
-          }
-
-          Field[] fields = type.getDeclaredFields();
-          for (Field field : fields) {
-            if (boundFields.add(field)) {
-              bindAnnotationInjectorToField(encounter, startType, field);
-            }
-          }
-
-          Method[] methods = type.getDeclaredMethods();
-          for (final Method method : methods) {
-            MethodKey key = new MethodKey(method);
-            if (boundMethods.get(key) == null) {
-              boundMethods.put(key, method);
-              bindAnnotationInjectionToMember(encounter, startType, method);
-            }
-          }
-
-          Class<?> supertype = type.getSuperclass();
-          if (supertype == Object.class) {
-            break;
-          }
-          startType = startType.getSupertype(supertype);
-        }
-      }
-
-      protected <I> void bindAnnotationInjectionToMember(final TypeEncounter<I> encounter,
-          final TypeLiteral<?> type, final Method method) {
-        // TODO lets exclude methods with @Inject?
-        final A annotation = method.getAnnotation(annotationType);
-        if (annotation != null) {
-          if (providerProvider == null) {
-            providerProvider = memberProviderProvider.get(encounter);
-          }
+    getMemberScanner().addAnnotationInjector(annotationType, memberProviderProvider);
+  }
 
-          encounter.register(new MembersInjector<I>() {
-            public void injectMembers(I injectee) {
-              AnnotationMemberProvider provider = providerProvider.get();
-
-              int size = method.getParameterTypes().length;
-              Object[] values = new Object[size];
-              for (int i = 0; i < size; i++) {
-                Class<?> paramType = getParameterType(type, method, i);
-                Object value = provider.provide(annotation, type, method, paramType, i);
-                checkInjectedValueType(value, paramType, encounter);
-
-                // if we have a null value then assume the injection point cannot be satisfied
-                // which is the spring @Autowired way of doing things
-                if (value == null && !provider
-                    .isNullParameterAllowed(annotation, method, paramType, i)) {
-                  return;
-                }
-                values[i] = value;
-              }
-              try {
-                method.setAccessible(true);
-                method.invoke(injectee, values);
-              }
-              catch (IllegalAccessException e) {
-                throw new ProvisionException("Failed to inject method " + method + ". Reason: " + e,
-                    e);
-              }
-              catch (InvocationTargetException ie) {
-                Throwable e = ie.getTargetException();
-                throw new ProvisionException("Failed to inject method " + method + ". Reason: " + e,
-                    e);
-              }
-            }
-          });
-        }
-      }
+  /**
+   * Binds a listener which is notified of each field or method annotated with the given annotation
+   * when the injector first encounters the type declaring it. The annotation must also be bound
+   * using one of the <code>bindAnnotationInjector</code> methods.
+   *
+   * @param annotationType the annotation class used to define the injection point
+   * @param listener the listener of the annotated members
+   * @param <A> the annotation type used as the injection point
+   */
+  protected <A extends Annotation> void bindInjectionPointListener(Class<A> annotationType,
+      InjectionPointListener<? super A> listener) {
 
-      protected <I> void bindAnnotationInjectorToField(final TypeEncounter<I> encounter,
-          final TypeLiteral<?> type, final Field field) {
-        // TODO lets exclude fields with @Inject?
-        final A annotation = field.getAnnotation(annotationType);
-        if (annotation != null) {
-          if (providerProvider == null) {
-            providerProvider = memberProviderProvider.get(encounter);
-          }
+    getMemberScanner().addInjectionPointListener(annotationType, listener);
+  }
 
-          encounter.register(new InjectionListener<I>() {
-            public void afterInjection(I injectee) {
-              AnnotationMemberProvider provider = providerProvider.get();
-              Object value = provider.provide(annotation, type, field);
-              checkInjectedValueType(value, field.getType(), encounter);
+  /**
+   * Binds a listener which is notified of every injectable type by the same listener which scans
+   * the types for the annotation injectors and method handlers bound by this module, rather than
+   * binding another listener which matches any type.
+   *
+   * @param listener the listener of the injectable types
+   */
+  protected void bindTypeListener(TypeListener listener) {
+    getMemberScanner().addTypeListener(listener);
+  }
 
-              try {
-                field.setAccessible(true);
-                field.set(injectee, value);
-              }
-              catch (IllegalAccessException e) {
-                throw new ProvisionException("Failed to inject field " + field + ". Reason: " + e,
-                    e);
-              }
-            }
-          });
-        }
-      }
-    });
+  /**
+   * Returns the listener which scans each injectable type once for all of the annotation injectors
+   * and method handlers bound by this module, registering it on the current binder if required
+   */
+  private AnnotationMemberScanner getMemberScanner() {
+    Binder binder = binder();
+    if (memberScanner == null || memberScannerBinder != binder) {
+      memberScanner = new AnnotationMemberScanner(this);
+      memberScannerBinder = binder;
+      bindListener(any(), memberScanner);
+    }
+    return memberScanner;
   }
 
   protected Class<?> getParameterType(TypeLiteral<?> type, Method method, int i) {
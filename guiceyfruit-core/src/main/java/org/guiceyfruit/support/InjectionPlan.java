@@ -0,0 +1,60 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * A description of the annotated members declared on a single class which is generated at compile
+ * time by the <code>guiceyfruit-apt</code> annotation processor so that the fields and methods of a
+ * class do not have to be scanned reflectively when it is first injected.
+ *
+ * The generated class is named after the binary name of the class it describes followed by
+ * {@link #CLASS_NAME_SUFFIX} and must have a public zero argument constructor.
+ *
+ * @version $Revision: 1.1 $
+ */
+public interface InjectionPlan {
+  /** The suffix added to the binary name of a class to find its generated plan */
+  String CLASS_NAME_SUFFIX = "$$InjectionPlan";
+
+  /** Returns the names of the annotation types the plan was generated for */
+  String[] getAnnotationTypeNames();
+
+  /**
+   * Returns the fingerprint of the members declared on the class when the plan was generated, so
+   * that a plan which is out of date with its class can be ignored
+   */
+  long getFingerprint();
+
+  /** Returns the fields declared on the given class which are annotated by any of the annotations */
+  Field[] getAnnotatedFields(Class<?> type) throws NoSuchFieldException;
+
+  /**
+   * Returns the methods declared on the given class which are annotated by any of the annotations
+   */
+  Method[] getAnnotatedMethods(Class<?> type) throws NoSuchMethodException;
+
+  /**
+   * Returns the methods declared on the given class which override an annotated method declared on
+   * one of its super classes
+   */
+  Method[] getOverridingMethods(Class<?> type) throws NoSuchMethodException;
+}
@@ -0,0 +1,210 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Loads and caches the {@link InjectionPlan} generated at compile time for a class, if there is
+ * one, so that the plan is only looked up and its members resolved once per class. Resolved plans
+ * are softly referenced and refer back to their class through its members, so a class with a plan
+ * is only unloaded once memory pressure has cleared its plan.
+ *
+ * A plan whose fingerprint does not match the members of the loaded class, such as when the class
+ * was recompiled without regenerating its plan, is ignored so that the class is scanned instead.
+ *
+ * @version $Revision: 1.1 $
+ */
+public final class InjectionPlans {
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private static final LoadingCache<Class<?>, Optional<ClassPlan>> CACHE = CacheBuilder
+      .newBuilder().weakKeys().softValues().build(new CacheLoader<Class<?>, Optional<ClassPlan>>() {
+        public Optional<ClassPlan> load(Class<?> type) {
+          return Optional.fromNullable(loadPlan(type));
+        }
+      });
+
+  private InjectionPlans() {
+  }
+
+  /** Returns the resolved plan for the given class or null if no plan was generated for it */
+  public static ClassPlan getPlan(Class<?> type) {
+    return CACHE.getUnchecked(type).orNull();
+  }
+
+  static ClassPlan loadPlan(Class<?> type) {
+    ClassLoader classLoader = type.getClassLoader();
+    if (classLoader == null || type.isArray() || type.isPrimitive()) {
+      return null;
+    }
+    String planName = type.getName() + InjectionPlan.CLASS_NAME_SUFFIX;
+    // most classes have no plan so lets check for one without the cost of a failed class load
+    if (classLoader.getResource(planName.replace('.', '/') + ".class") == null) {
+      return null;
+    }
+    try {
+      Class<?> planType = classLoader.loadClass(planName);
+      if (!InjectionPlan.class.isAssignableFrom(planType)) {
+        return null;
+      }
+      InjectionPlan plan = (InjectionPlan) planType.newInstance();
+      Set<String> annotationTypeNames = ImmutableSet.copyOf(plan.getAnnotationTypeNames());
+      if (plan.getFingerprint() != getFingerprint(type, annotationTypeNames)) {
+        return null;
+      }
+      return new ClassPlan(annotationTypeNames,
+          plan.getAnnotatedFields(type), plan.getAnnotatedMethods(type),
+          plan.getOverridingMethods(type));
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+    catch (LinkageError e) {
+      return null;
+    }
+    // a plan which is out of date with its class is ignored so that the class is scanned instead
+    catch (NoSuchFieldException e) {
+      return null;
+    }
+    catch (NoSuchMethodException e) {
+      return null;
+    }
+    catch (InstantiationException e) {
+      return null;
+    }
+    catch (IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the fingerprint of the members declared on the class, calculated in the same way as the
+   * <code>guiceyfruit-apt</code> processor does when it generates the plan: the 64 bit FNV-1a hash
+   * of the sorted descriptions of the annotated fields and of all of the methods, each followed by
+   * the given annotations it is annotated with
+   */
+  static long getFingerprint(Class<?> type, Set<String> annotationTypeNames) {
+    Set<String> members = Sets.newTreeSet();
+    for (Field field : type.getDeclaredFields()) {
+      if (!field.isSynthetic()) {
+        String annotations = getAnnotationNames(field, annotationTypeNames);
+        if (annotations.length() > 0) {
+          members.add("field " + field.getName() + annotations);
+        }
+      }
+    }
+    for (Method method : type.getDeclaredMethods()) {
+      if (!method.isSynthetic()) {
+        StringBuilder buffer = new StringBuilder("method ").append(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+          if (i > 0) {
+            buffer.append(',');
+          }
+          buffer.append(parameterTypes[i].getCanonicalName());
+        }
+        buffer.append(')').append(getAnnotationNames(method, annotationTypeNames));
+        members.add(buffer.toString());
+      }
+    }
+    long hash = FNV_OFFSET_BASIS;
+    for (String member : members) {
+      for (int i = 0, length = member.length(); i < length; i++) {
+        hash = (hash ^ member.charAt(i)) * FNV_PRIME;
+      }
+      hash = (hash ^ '\n') * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /** Returns the sorted names of the given annotations on the member, each after " @" */
+  private static String getAnnotationNames(AnnotatedElement member,
+      Set<String> annotationTypeNames) {
+    Set<String> names = Sets.newTreeSet();
+    for (Annotation annotation : member.getDeclaredAnnotations()) {
+      String name = annotation.annotationType().getCanonicalName();
+      if (annotationTypeNames.contains(name)) {
+        names.add(name);
+      }
+    }
+    StringBuilder buffer = new StringBuilder();
+    for (String name : names) {
+      buffer.append(" @").append(name);
+    }
+    return buffer.toString();
+  }
+
+  /** The members of a class described by its {@link InjectionPlan} */
+  public static final class ClassPlan {
+    private final Set<String> annotationTypeNames;
+    private final Field[] annotatedFields;
+    private final Method[] annotatedMethods;
+    private final Method[] overridingMethods;
+
+    ClassPlan(Set<String> annotationTypeNames, Field[] annotatedFields,
+        Method[] annotatedMethods, Method[] overridingMethods) {
+      this.annotationTypeNames = annotationTypeNames;
+      this.annotatedFields = annotatedFields;
+      this.annotatedMethods = annotatedMethods;
+      this.overridingMethods = overridingMethods;
+    }
+
+    /** Returns true if the plan includes the members annotated with all of the given annotations */
+    public boolean covers(Collection<String> annotationTypeNames) {
+      return this.annotationTypeNames.containsAll(annotationTypeNames);
+    }
+
+    public Set<String> getAnnotationTypeNames() {
+      return annotationTypeNames;
+    }
+
+    public Field[] getAnnotatedFields() {
+      return annotatedFields;
+    }
+
+    public Method[] getAnnotatedMethods() {
+      return annotatedMethods;
+    }
+
+    public Method[] getOverridingMethods() {
+      return overridingMethods;
+    }
+
+    @Override
+    public String toString() {
+      return "ClassPlan(" + annotationTypeNames + " fields: " + Arrays.asList(annotatedFields)
+          + " methods: " + Arrays.asList(annotatedMethods) + ")";
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Member;
+
+import com.google.inject.TypeLiteral;
+
+/**
+ * Is notified of each field or method annotated with an annotation bound as an annotation
+ * injector when the type declaring it is first encountered by the injector, which is before
+ * anything is injected into the member, such as to discover the names which will be injected.
+ *
+ * @version $Revision: 1.1 $
+ * @see GuiceyFruitModule#bindInjectionPointListener(Class, InjectionPointListener)
+ */
+public interface InjectionPointListener<A extends Annotation> {
+
+  /**
+   * Invoked when an annotated field or method is found
+   *
+   * @param annotation the annotation on the member
+   * @param type the type declaring the member, used to resolve the member's generic types
+   * @param member the annotated field or method
+   */
+  void hear(A annotation, TypeLiteral<?> type, Member member);
+}
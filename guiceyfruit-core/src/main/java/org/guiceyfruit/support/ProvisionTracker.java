@@ -0,0 +1,116 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import static com.google.inject.matcher.Matchers.any;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import com.google.inject.spi.InjectionListener;
+import com.google.inject.spi.TypeEncounter;
+import com.google.inject.spi.TypeListener;
+
+/**
+ * Counts the instances of each type created by an injector so that closing an injector does not
+ * need to create any singletons which were never used just to be able to close them.
+ *
+ * Guice 3 only notifies listeners of the instances of a type, not of the binding they were created
+ * for, and does not allow the singleton scope to be replaced; the bindings which created the
+ * instances are worked out from the counts by
+ * {@link org.guiceyfruit.support.internal.ProvisionedBindings}.
+ *
+ * A tracker is installed by {@link GuiceyFruitModule}; installing multiple modules into the same
+ * injector only installs a single tracker.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class ProvisionTracker implements TypeListener {
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private final Map<TypeLiteral<?>, AtomicInteger> instanceCounts = new MapMaker().weakKeys()
+      .makeMap();
+
+  /** Returns the module which installs a tracker, only once per injector */
+  public static com.google.inject.Module module() {
+    return new TrackerModule();
+  }
+
+  public <I> void hear(TypeLiteral<I> injectableType, TypeEncounter<I> encounter) {
+    final AtomicInteger instanceCount = new AtomicInteger();
+    instanceCounts.put(injectableType, instanceCount);
+    encounter.register(new InjectionListener<I>() {
+      public void afterInjection(I injectee) {
+        instanceCount.incrementAndGet();
+      }
+    });
+  }
+
+  /** Returns the number of instances of each type created by the injector which has any */
+  public Map<TypeLiteral<?>, Integer> getInstantiatedTypes() {
+    Map<TypeLiteral<?>, Integer> answer = Maps.newHashMap();
+    for (Entry<TypeLiteral<?>, AtomicInteger> entry : instanceCounts.entrySet()) {
+      int count = entry.getValue().get();
+      if (count > 0) {
+        answer.put(entry.getKey(), count);
+      }
+    }
+    return answer;
+  }
+
+  /** Returns true if an instance of the given class has been created by the injector */
+  public boolean isInstantiated(Class<?> type) {
+    for (Entry<TypeLiteral<?>, AtomicInteger> entry : instanceCounts.entrySet()) {
+      if (entry.getKey().getRawType() == type && entry.getValue().get() > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Binds a tracker using a unique key so that trackers in parent and child injectors don't clash.
+   * Modules are only installed once per injector if they are equal so all instances are equal.
+   */
+  static class TrackerModule extends AbstractModule {
+    protected void configure() {
+      ProvisionTracker tracker = new ProvisionTracker();
+      bind(Key.get(ProvisionTracker.class, Names.named(
+          ProvisionTracker.class.getName() + "-" + COUNTER.incrementAndGet()))).toInstance(tracker);
+      bindListener(any(), tracker);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof TrackerModule;
+    }
+
+    @Override
+    public int hashCode() {
+      return TrackerModule.class.hashCode();
+    }
+  }
+}
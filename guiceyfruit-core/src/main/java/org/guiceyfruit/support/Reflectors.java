@@ -18,6 +18,7 @@
 
 package org.guiceyfruit.support;
 
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,20 @@ import com.google.inject.TypeLiteral;
  * @version $Revision: 1.1 $
  */
 public class Reflectors {
+  /** An empty argument array to avoid allocating one on each invocation of a no-argument method */
+  public static final Object[] NO_ARGUMENTS = new Object[0];
+
+  /**
+   * Suppresses the Java language access checks on the given field, method or constructor so that
+   * it can be invoked repeatedly without paying for the access check on each invocation
+   */
+  public static <T extends AccessibleObject> T makeAccessible(T member) {
+    if (!member.isAccessible()) {
+      member.setAccessible(true);
+    }
+    return member;
+  }
+
   /** Returns all the methods on the given type ignoring overloaded methods */
   public static List<Method> getAllMethods(Class<?> type) {
     return getAllMethods(TypeLiteral.get(type));
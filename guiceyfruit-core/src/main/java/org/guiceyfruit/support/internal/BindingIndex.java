@@ -0,0 +1,144 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support.internal;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.Matcher;
+
+/**
+ * An immutable index of the explicit bindings of an injector and its parent injectors by every
+ * super class and interface of their key types, including the generic {@link TypeLiteral} of each
+ * super type, so that bindings can be found by type without scanning all of the bindings.
+ *
+ * Indexes are created lazily the first time they are required and are cached per injector. As the
+ * bindings of an index refer back to the injector, an index is released when its injector is
+ * closed using {@link org.guiceyfruit.Injectors#close(Injector)}, or once it has not been used for
+ * a few minutes, rather than keeping the injector reachable until memory runs low.
+ *
+ * @version $Revision: 1.1 $
+ */
+public final class BindingIndex {
+  private static final LoadingCache<Injector, BindingIndex> CACHE = CacheBuilder.newBuilder()
+      .weakKeys().softValues().expireAfterAccess(5, TimeUnit.MINUTES)
+      .build(new CacheLoader<Injector, BindingIndex>() {
+        public BindingIndex load(Injector injector) {
+          return new BindingIndex(injector);
+        }
+      });
+
+  private final ImmutableListMultimap<Class<?>, Binding<?>> bindingsByKeyType;
+  private final ImmutableListMultimap<Class<?>, Binding<?>> bindingsByType;
+  private final ImmutableListMultimap<TypeLiteral<?>, Binding<?>> bindingsByTypeLiteral;
+
+  /** Returns the index of the bindings of the given injector */
+  public static BindingIndex getIndex(Injector injector) {
+    return CACHE.getUnchecked(injector);
+  }
+
+  /** Releases the cached index of the given injector, if there is one */
+  public static void release(Injector injector) {
+    CACHE.invalidate(injector);
+  }
+
+  private BindingIndex(Injector injector) {
+    ImmutableListMultimap.Builder<Class<?>, Binding<?>> keyTypes = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<Class<?>, Binding<?>> types = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<TypeLiteral<?>, Binding<?>> typeLiterals
+        = ImmutableListMultimap.builder();
+    Map<Class<?>, Set<Class<?>>> supertypesCache = Maps.newHashMap();
+
+    for (Injector current = injector; current != null; current = current.getParent()) {
+      for (Binding<?> binding : current.getBindings().values()) {
+        TypeLiteral<?> typeLiteral = binding.getKey().getTypeLiteral();
+        Class<?> keyType = typeLiteral.getRawType();
+        keyTypes.put(keyType, binding);
+
+        for (Class<?> type : getSupertypes(keyType, supertypesCache)) {
+          types.put(type, binding);
+          typeLiterals.put(type == keyType ? typeLiteral : typeLiteral.getSupertype(type), binding);
+        }
+      }
+    }
+    bindingsByKeyType = keyTypes.build();
+    bindingsByType = types.build();
+    bindingsByTypeLiteral = typeLiterals.build();
+  }
+
+  /** Returns the bindings whose key type is the given class or one of its sub classes */
+  public List<Binding<?>> getBindings(Class<?> type) {
+    return bindingsByType.get(type);
+  }
+
+  /** Returns the bindings whose key type is the given type or one of its sub types */
+  public List<Binding<?>> getBindings(TypeLiteral<?> type) {
+    return bindingsByTypeLiteral.get(type);
+  }
+
+  /** Returns the bindings whose key type matches the given matcher */
+  public List<Binding<?>> getBindings(Matcher<Class> matcher) {
+    ImmutableList.Builder<Binding<?>> answer = ImmutableList.builder();
+    for (Map.Entry<Class<?>, List<Binding<?>>> entry : getBindingsByKeyType().entrySet()) {
+      if (matcher.matches(entry.getKey())) {
+        answer.addAll(entry.getValue());
+      }
+    }
+    return answer.build();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<Class<?>, List<Binding<?>>> getBindingsByKeyType() {
+    return (Map) bindingsByKeyType.asMap();
+  }
+
+  /** Returns the class, all of its super classes and all of the interfaces it implements */
+  private static Set<Class<?>> getSupertypes(Class<?> type,
+      Map<Class<?>, Set<Class<?>>> supertypesCache) {
+    Set<Class<?>> answer = supertypesCache.get(type);
+    if (answer == null) {
+      answer = Sets.newLinkedHashSet();
+      answer.add(type);
+      Class<?> superclass = type.getSuperclass();
+      if (superclass != null) {
+        answer.addAll(getSupertypes(superclass, supertypesCache));
+      }
+      for (Class<?> interfaceType : type.getInterfaces()) {
+        answer.addAll(getSupertypes(interfaceType, supertypesCache));
+      }
+      if (!type.isPrimitive()) {
+        answer.add(Object.class);
+      }
+      supertypesCache.put(type, answer);
+    }
+    return answer;
+  }
+}
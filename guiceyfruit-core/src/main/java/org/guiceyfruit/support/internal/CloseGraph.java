@@ -0,0 +1,380 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support.internal;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.Closers;
+import org.guiceyfruit.support.TypedCloser;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.HasDependencies;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+
+/**
+ * The objects to be closed for a number of bindings along with the dependencies between them, as
+ * described by Guice's {@link Dependency} metadata, so that each object is closed before any of
+ * the objects it depends on.
+ *
+ * Objects bound to more than one key are only closed once. Any objects which depend on each other
+ * in a cycle are closed once there is nothing else left which can be closed.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class CloseGraph {
+  private final List<Node> nodes = Lists.newArrayList();
+
+  public CloseGraph(Injector injector, Map<Key<?>, Binding<?>> bindings) {
+    Map<Object, Node> nodesByValue = new IdentityHashMap<Object, Node>();
+    Map<Key<?>, Node> nodesByKey = Maps.newHashMap();
+    for (Entry<Key<?>, Binding<?>> entry : bindings.entrySet()) {
+      Object value = entry.getValue().getProvider().get();
+      if (value != null) {
+        Node node = nodesByValue.get(value);
+        if (node == null) {
+          node = new Node(value);
+          nodesByValue.put(value, node);
+          nodes.add(node);
+        }
+        node.keys.add(entry.getKey());
+        nodesByKey.put(entry.getKey(), node);
+      }
+    }
+
+    for (Node node : nodes) {
+      addDependencies(injector, bindings, nodesByKey, node);
+    }
+  }
+
+  /** Returns the number of distinct objects to be closed */
+  public int size() {
+    return nodes.size();
+  }
+
+  /** Closes the objects on the calling thread */
+  public void close(Closer closer, CloseErrors errors) {
+    CloseOrder order = new CloseOrder();
+    while (order.hasNext()) {
+      Node node = order.next();
+      if (isCloseable(closer, node)) {
+        Closers.close(node.getKey(), node.value, closer, errors);
+      }
+      order.closed(node);
+    }
+  }
+
+  /**
+   * Closes the objects using the given executor so that objects which do not depend on each other
+   * can be closed concurrently. Any close which does not complete within the timeout of being
+   * submitted to the executor, including any time spent waiting for a thread, is cancelled and
+   * reported to the errors, in the same way as any exception thrown by the closer.
+   *
+   * The errors are only notified from the calling thread so they do not need to be thread safe. Any
+   * {@link Error} thrown by the closer is rethrown once the other objects have been closed.
+   */
+  public void close(final Closer closer, CloseErrors errors, ExecutorService executor,
+      long timeout, TimeUnit unit) {
+    long timeoutNanos = unit.toNanos(timeout);
+    CompletionService<Throwable> completionService
+        = new ExecutorCompletionService<Throwable>(executor);
+    Map<Future<Throwable>, CloseCall> running = Maps.newHashMap();
+    CloseOrder order = new CloseOrder();
+    Error error = null;
+
+    while (order.hasNext() || !running.isEmpty()) {
+      while (order.hasReady()) {
+        Node node = order.next();
+        if (isCloseable(closer, node)) {
+          CloseCall call = new CloseCall(closer, node, System.nanoTime() + timeoutNanos);
+          running.put(completionService.submit(call), call);
+        }
+        else {
+          order.closed(node);
+        }
+      }
+      if (running.isEmpty()) {
+        if (order.hasNext()) {
+          // only objects in a dependency cycle are left so close the next one anyway
+          order.forceNext();
+        }
+        continue;
+      }
+
+      Future<Throwable> future;
+      try {
+        future = completionService.poll(nextWait(running.values()), TimeUnit.NANOSECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (Entry<Future<Throwable>, CloseCall> entry : running.entrySet()) {
+          entry.getKey().cancel(true);
+          Node node = entry.getValue().node;
+          errors.closeError(node.getKey(), node.value, e);
+        }
+        break;
+      }
+
+      if (future != null) {
+        CloseCall call = running.remove(future);
+        if (call != null) {
+          Error callError = completed(call, future, errors);
+          if (error == null) {
+            error = callError;
+          }
+          order.closed(call.node);
+        }
+      }
+
+      long now = System.nanoTime();
+      Iterator<Entry<Future<Throwable>, CloseCall>> iter = running.entrySet().iterator();
+      while (iter.hasNext()) {
+        Entry<Future<Throwable>, CloseCall> entry = iter.next();
+        CloseCall call = entry.getValue();
+        if (now - call.deadlineNanos >= 0) {
+          iter.remove();
+          entry.getKey().cancel(true);
+          errors.closeError(call.node.getKey(), call.node.value, new TimeoutException(
+              "Close did not complete within " + unit.toMillis(timeout) + " millis"));
+          order.closed(call.node);
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /** Returns false if the closer has nothing to do for the node so it can be skipped */
+  private static boolean isCloseable(Closer closer, Node node) {
+    return !(closer instanceof TypedCloser)
+        || ((TypedCloser) closer).isCloseable(node.value.getClass());
+  }
+
+  /** Returns how long to wait for the next close to complete before checking for timeouts */
+  private static long nextWait(Iterable<CloseCall> calls) {
+    long now = System.nanoTime();
+    long answer = Long.MAX_VALUE;
+    for (CloseCall call : calls) {
+      answer = Math.min(answer, call.deadlineNanos - now);
+    }
+    return Math.max(answer, 0L);
+  }
+
+  /** Reports any exception thrown by the completed close, returning any error to be rethrown */
+  private static Error completed(CloseCall call, Future<Throwable> future, CloseErrors errors) {
+    Throwable throwable;
+    try {
+      throwable = future.get();
+    }
+    catch (InterruptedException e) {
+      // cannot happen as the future has completed
+      Thread.currentThread().interrupt();
+      throwable = e;
+    }
+    catch (ExecutionException e) {
+      throwable = e.getCause();
+    }
+    if (throwable instanceof Exception) {
+      errors.closeError(call.node.getKey(), call.node.value, (Exception) throwable);
+    }
+    else if (throwable instanceof Error) {
+      return (Error) throwable;
+    }
+    return null;
+  }
+
+  private void addDependencies(Injector injector, Map<Key<?>, Binding<?>> bindings,
+      Map<Key<?>, Node> nodesByKey, Node node) {
+    // follow the dependencies through any bindings which are not closed themselves
+    Set<Key<?>> visited = Sets.newHashSet();
+    LinkedList<Key<?>> queue = Lists.newLinkedList();
+    for (Key<?> key : node.keys) {
+      visited.add(key);
+      addDependencyKeys(queue, bindings.get(key));
+    }
+    while (!queue.isEmpty()) {
+      Key<?> key = providedKey(queue.removeFirst());
+      if (!visited.add(key)) {
+        continue;
+      }
+      Node dependency = nodesByKey.get(key);
+      if (dependency != null) {
+        if (dependency != node && node.dependencies.add(dependency)) {
+          dependency.dependents++;
+        }
+      }
+      else {
+        addDependencyKeys(queue, injector.getExistingBinding(key));
+      }
+    }
+  }
+
+  private static void addDependencyKeys(List<Key<?>> keys, Binding<?> binding) {
+    if (binding instanceof HasDependencies) {
+      for (Dependency<?> dependency : ((HasDependencies) binding).getDependencies()) {
+        keys.add(dependency.getKey());
+      }
+    }
+    if (binding instanceof LinkedKeyBinding) {
+      keys.add(((LinkedKeyBinding<?>) binding).getLinkedKey());
+    }
+    else if (binding instanceof ProviderKeyBinding) {
+      keys.add(((ProviderKeyBinding<?>) binding).getProviderKey());
+    }
+    else if (binding instanceof ProviderBinding) {
+      keys.add(((ProviderBinding<?>) binding).getProvidedKey());
+    }
+  }
+
+  /** Returns the key of the provided object if the key is for a provider of the object */
+  private static Key<?> providedKey(Key<?> key) {
+    Type type = key.getTypeLiteral().getType();
+    if (type instanceof ParameterizedType) {
+      ParameterizedType parameterizedType = (ParameterizedType) type;
+      Type rawType = parameterizedType.getRawType();
+      if (rawType == Provider.class || rawType == javax.inject.Provider.class) {
+        TypeLiteral<?> providedType = TypeLiteral
+            .get(parameterizedType.getActualTypeArguments()[0]);
+        if (key.getAnnotation() != null) {
+          return Key.get(providedType, key.getAnnotation());
+        }
+        if (key.getAnnotationType() != null) {
+          return Key.get(providedType, key.getAnnotationType());
+        }
+        return Key.get(providedType);
+      }
+    }
+    return key;
+  }
+
+  /** An object to be closed and the other objects to be closed which it depends on */
+  static class Node {
+    final Object value;
+    final List<Key<?>> keys = Lists.newArrayList();
+    final Set<Node> dependencies = Sets.newLinkedHashSet();
+    int dependents;
+
+    Node(Object value) {
+      this.value = value;
+    }
+
+    Key<?> getKey() {
+      return keys.get(0);
+    }
+  }
+
+  /** Calculates the order in which nodes can be closed as each node is closed */
+  class CloseOrder {
+    private final Map<Node, Integer> openDependents = new IdentityHashMap<Node, Integer>();
+    private final LinkedList<Node> ready = Lists.newLinkedList();
+    private final Set<Node> remaining = Sets.newLinkedHashSet(nodes);
+
+    CloseOrder() {
+      for (Node node : nodes) {
+        openDependents.put(node, node.dependents);
+        if (node.dependents == 0) {
+          ready.add(node);
+        }
+      }
+    }
+
+    boolean hasReady() {
+      return !ready.isEmpty();
+    }
+
+    boolean hasNext() {
+      return !remaining.isEmpty();
+    }
+
+    /** Returns the next node which can be closed, breaking any dependency cycle if required */
+    Node next() {
+      if (ready.isEmpty()) {
+        forceNext();
+      }
+      Node node = ready.removeFirst();
+      remaining.remove(node);
+      return node;
+    }
+
+    void forceNext() {
+      ready.add(remaining.iterator().next());
+    }
+
+    void closed(Node node) {
+      for (Node dependency : node.dependencies) {
+        int count = openDependents.get(dependency) - 1;
+        openDependents.put(dependency, count);
+        if (count == 0 && remaining.contains(dependency)) {
+          ready.add(dependency);
+        }
+      }
+    }
+  }
+
+  /** Closes a node on an executor thread, which must complete by its deadline */
+  static class CloseCall implements Callable<Throwable> {
+    private final Closer closer;
+    final Node node;
+    final long deadlineNanos;
+
+    CloseCall(Closer closer, Node node, long deadlineNanos) {
+      this.closer = closer;
+      this.node = node;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    public Throwable call() {
+      try {
+        closer.close(node.value);
+        return null;
+      }
+      catch (Throwable e) {
+        return e;
+      }
+    }
+  }
+}
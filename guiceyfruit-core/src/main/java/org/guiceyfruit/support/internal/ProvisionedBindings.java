@@ -0,0 +1,195 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.guiceyfruit.support.internal;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.guiceyfruit.support.ProvisionTracker;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.ConfigurationException;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import com.google.inject.internal.BindingImpl;
+import com.google.inject.spi.ConstructorBinding;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.InjectionPoint;
+import com.google.inject.spi.LinkedKeyBinding;
+
+/**
+ * Works out which of the constructor and linked bindings of an injector have created their objects
+ * from the number of instances of each class counted by the {@link ProvisionTracker}s of the
+ * injector, so that closing an injector does not create objects just to be able to close them.
+ *
+ * Guice only reports the instances created per class, not per binding. So when several bindings
+ * create their own instances of a class, such as singletons of one class bound to different binding
+ * annotations or a class also bound without a scope, a binding has only created its object if its
+ * key has been injected into a created object, or if more instances of the class were created than
+ * the injected bindings account for; such as when an object was looked up directly on the injector.
+ *
+ * @version $Revision: 1.1 $
+ */
+public final class ProvisionedBindings {
+  private final Injector injector;
+  private final Map<Class<?>, Integer> instanceCounts = Maps.newHashMap();
+  private final Multimap<Class<?>, Key<?>> owners = HashMultimap.create();
+  private final Set<Key<?>> injectedOwners = Sets.newHashSet();
+  private final Map<Class<?>, Integer> injectedCounts = Maps.newHashMap();
+
+  public ProvisionedBindings(Injector injector, Iterable<ProvisionTracker> trackers) {
+    this.injector = injector;
+    for (Injector current = injector; current != null; current = current.getParent()) {
+      for (Binding<?> binding : current.getAllBindings().values()) {
+        ConstructorBinding<?> constructorBinding = getConstructorBinding(binding);
+        if (constructorBinding != null) {
+          owners.put(getConstructedType(constructorBinding), getOwner(binding).getKey());
+        }
+      }
+    }
+
+    Map<TypeLiteral<?>, Integer> instantiatedTypes = Maps.newHashMap();
+    for (ProvisionTracker tracker : trackers) {
+      instantiatedTypes.putAll(tracker.getInstantiatedTypes());
+    }
+    for (Entry<TypeLiteral<?>, Integer> entry : instantiatedTypes.entrySet()) {
+      add(instanceCounts, entry.getKey().getRawType(), entry.getValue());
+    }
+    for (Entry<TypeLiteral<?>, Integer> entry : instantiatedTypes.entrySet()) {
+      for (Dependency<?> dependency : getDependencies(entry.getKey())) {
+        addInjected(dependency.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns true if the given binding, or the binding it links to, creates its objects using a
+   * constructor
+   */
+  public boolean isConstructed(Binding<?> binding) {
+    return getConstructorBinding(binding) != null;
+  }
+
+  /**
+   * Returns true if the object of the given constructor or linked binding has been created, or
+   * false if it has not or the binding does not create its objects using a constructor
+   */
+  public boolean isProvisioned(Binding<?> binding) {
+    ConstructorBinding<?> constructorBinding = getConstructorBinding(binding);
+    if (constructorBinding == null) {
+      return false;
+    }
+    Class<?> type = getConstructedType(constructorBinding);
+    Integer count = instanceCounts.get(type);
+    if (count == null) {
+      return false;
+    }
+    Key<?> owner = getOwner(binding).getKey();
+    Collection<Key<?>> typeOwners = owners.get(type);
+    if (injectedOwners.contains(owner) || (typeOwners.size() == 1 && typeOwners.contains(owner))) {
+      return true;
+    }
+    Integer injectedCount = injectedCounts.get(type);
+    return injectedCount == null || count > injectedCount;
+  }
+
+  /**
+   * Records that the given key has been injected into the given number of created objects; once for
+   * a scoped binding which shares its object or for every object otherwise
+   */
+  private void addInjected(Key<?> key, int count) {
+    Binding<?> binding = injector.getExistingBinding(key);
+    ConstructorBinding<?> constructorBinding = getConstructorBinding(binding);
+    if (constructorBinding == null) {
+      return;
+    }
+    Binding<?> owner = getOwner(binding);
+    Class<?> type = getConstructedType(constructorBinding);
+    if (!isScoped(owner)) {
+      add(injectedCounts, type, count);
+    }
+    else if (injectedOwners.add(owner.getKey())) {
+      add(injectedCounts, type, 1);
+    }
+  }
+
+  /**
+   * Returns the binding which owns the objects of the given binding; the scoped binding nearest to
+   * the constructor, whose scope caches the object shared by any scoped bindings linking to it, or
+   * the constructor binding itself if none of the bindings are scoped
+   */
+  private Binding<?> getOwner(Binding<?> binding) {
+    Binding<?> owner = null;
+    Binding<?> current = binding;
+    while (current instanceof LinkedKeyBinding) {
+      if (isScoped(current)) {
+        owner = current;
+      }
+      current = injector.getBinding(((LinkedKeyBinding<?>) current).getLinkedKey());
+    }
+    return (owner == null || isScoped(current)) ? current : owner;
+  }
+
+  /** Returns the constructor binding at the end of the links of the given binding if there is one */
+  private ConstructorBinding<?> getConstructorBinding(Binding<?> binding) {
+    Binding<?> current = binding;
+    while (current instanceof LinkedKeyBinding) {
+      current = injector.getBinding(((LinkedKeyBinding<?>) current).getLinkedKey());
+    }
+    return current instanceof ConstructorBinding ? (ConstructorBinding<?>) current : null;
+  }
+
+  private static Class<?> getConstructedType(ConstructorBinding<?> binding) {
+    return binding.getConstructor().getDeclaringType().getRawType();
+  }
+
+  private static boolean isScoped(Binding<?> binding) {
+    return binding instanceof BindingImpl && !((BindingImpl<?>) binding).getScoping().isNoScope();
+  }
+
+  /** Returns the dependencies injected by the injector into the created objects of the given type */
+  private static Set<Dependency<?>> getDependencies(TypeLiteral<?> type) {
+    Set<InjectionPoint> injectionPoints = Sets.newHashSet();
+    try {
+      injectionPoints.add(InjectionPoint.forConstructorOf(type));
+    }
+    catch (ConfigurationException e) {
+      // the objects were created outside of the injector and only had their members injected
+    }
+    try {
+      injectionPoints.addAll(InjectionPoint.forInstanceMethodsAndFields(type));
+    }
+    catch (ConfigurationException e) {
+      Set<InjectionPoint> partialValue = e.getPartialValue();
+      injectionPoints.addAll(partialValue);
+    }
+    return Dependency.forInjectionPoints(injectionPoints);
+  }
+
+  private static void add(Map<Class<?>, Integer> counts, Class<?> type, int count) {
+    Integer current = counts.get(type);
+    counts.put(type, current == null ? count : current + count);
+  }
+}
@@ -19,19 +19,33 @@
 package org.guiceyfruit.util;
 
 import java.lang.annotation.Annotation;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.guiceyfruit.Injectors;
+import org.guiceyfruit.support.CloseErrors;
 import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.Closers;
 import org.guiceyfruit.support.HasScopeAnnotation;
 import org.guiceyfruit.support.internal.CloseErrorsImpl;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
 import com.google.inject.Scope;
 
 /**
@@ -40,12 +54,28 @@ import com.google.inject.Scope;
  * The scope can be closed as many times as required - there is no need to recreate the scope
  * instance each time a scope goes out of scope.
  *
+ * Cached objects are looked up without locking; when an object needs to be created only the
+ * threads requesting the same key wait for it to be created.
+ *
  * @version $Revision: 1.1 $
  */
 public class CloseableScope implements Scope, HasScopeAnnotation {
 
   private Class<? extends Annotation> scopeAnnotation;
-  private final Map<Key<?>, Object> map = Maps.newHashMap();
+  private static final Comparator<Entry<Key<?>, ScopedInstance>> REVERSE_CREATION_ORDER
+      = new Comparator<Entry<Key<?>, ScopedInstance>>() {
+        public int compare(Entry<Key<?>, ScopedInstance> o1, Entry<Key<?>, ScopedInstance> o2) {
+          long s1 = o1.getValue().getSequence();
+          long s2 = o2.getValue().getSequence();
+          return s1 > s2 ? -1 : (s1 == s2 ? 0 : 1);
+        }
+      };
+
+  private final ConcurrentMap<Key<?>, ScopedInstance> map
+      = new ConcurrentHashMap<Key<?>, ScopedInstance>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final ConcurrentMap<Thread, ScopedInstance> waiting
+      = new ConcurrentHashMap<Thread, ScopedInstance>();
 
   @Inject
   private Injector injector;
@@ -54,54 +84,251 @@ public class CloseableScope implements Scope, HasScopeAnnotation {
     this.scopeAnnotation = scopeAnnotation;
   }
 
-  @SuppressWarnings("unchecked")
   public <T> Provider<T> scope(final Key<T> key, final Provider<T> creator) {
-    return new Provider<T>() {
-      public T get() {
-        Object o;
-        synchronized (map) {
-          o = map.get(key);
-          if (o == null) {
-            o = creator.get();
-            map.put(key, o);
-          }
-        }
-        return (T) o;
-      }
-
-      public T getCachedValue() {
-        synchronized (map) {
-          return (T) map.get(key);
-        }
-      }
-    };
+    return new ScopedProvider<T>(key, creator);
   }
 
   /**
-   * Closes all of the objects within this scope using the given injector and scope annotation
-   * and clears the scope
+   * Closes all of the objects within this scope using the closers of the injector the scope
+   * was injected into and clears the scope
    */
   public void close() throws CloseFailedException {
     close(injector);
   }
 
   /**
-   * Closes all of the objects within the given injector of the specified scope
-   * and clears the scope
+   * Closes all of the objects within this scope, in the reverse order to which they were
+   * created, using the closers of the given injector and clears the scope
    */
   public void close(Injector injector) throws
       CloseFailedException {
-    Preconditions.checkNotNull(injector, "injector");
     CloseErrorsImpl errors = new CloseErrorsImpl(this);
-    Injectors.close(injector, scopeAnnotation, errors);
+    close(injector, errors);
+    errors.throwIfNecessary();
+  }
 
-    synchronized (map) {
-      map.clear();
+  /**
+   * Closes all of the objects within this scope, in the reverse order to which they were
+   * created, using the closers of the given injector and clears the scope, reporting any close
+   * exceptions to the errors. Objects which other threads are still creating are waited for so
+   * that they are closed too rather than being handed out without ever being closed.
+   */
+  public void close(Injector injector, CloseErrors errors) {
+    Preconditions.checkNotNull(injector, "injector");
+    Closer closer = Injectors.getCloser(injector);
+
+    List<Entry<Key<?>, ScopedInstance>> created = Lists.newArrayList();
+    for (Entry<Key<?>, ScopedInstance> entry : map.entrySet()) {
+      ScopedInstance instance = entry.getValue();
+      if (map.remove(entry.getKey(), instance)) {
+        if (!instance.isDone() && !instance.isCreatingThread()) {
+          instance.awaitDone(entry.getKey(), errors);
+        }
+        if (instance.getValue() != null) {
+          created.add(entry);
+        }
+      }
+    }
+    if (closer != null) {
+      Collections.sort(created, REVERSE_CREATION_ORDER);
+      Set<Object> closed = Sets.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+      for (Entry<Key<?>, ScopedInstance> entry : created) {
+        Object value = entry.getValue().getValue();
+        if (closed.add(value)) {
+          Closers.close(entry.getKey(), value, closer, errors);
+        }
+      }
     }
-    errors.throwIfNecessary();
   }
 
   public Class<? extends Annotation> getScopeAnnotation() {
     return scopeAnnotation;
   }
+
+  /** Returns the cached value for the given key or null if it has not been created yet */
+  protected Object getCachedValue(Key<?> key) {
+    ScopedInstance instance = map.get(key);
+    return instance != null ? instance.getValue() : null;
+  }
+
+  /**
+   * Returns the object for the key, creating it if it has not been created yet or waiting for
+   * another thread which is already creating it
+   */
+  protected Object getOrCreate(Key<?> key, Provider<?> creator) {
+    ScopedInstance instance = map.get(key);
+    if (instance == null) {
+      ScopedInstance newInstance = new ScopedInstance();
+      instance = map.putIfAbsent(key, newInstance);
+      if (instance == null) {
+        return create(key, creator, newInstance);
+      }
+    }
+    if (instance.isDone()) {
+      return instance.getResult();
+    }
+    if (instance.isCreatingThread()) {
+      // a reentrant request while creating the object, such as from a circular dependency
+      // which Guice will resolve using a proxy
+      return creator.get();
+    }
+    return await(key, instance);
+  }
+
+  /**
+   * Waits for another thread to create the object, failing if that thread is itself waiting,
+   * directly or indirectly, for an object being created by this thread as neither could complete
+   */
+  protected Object await(Key<?> key, ScopedInstance instance) {
+    Thread thread = Thread.currentThread();
+    waiting.put(thread, instance);
+    try {
+      ScopedInstance next = instance;
+      for (int i = 0, size = waiting.size(); next != null && !next.isDone() && i <= size; i++) {
+        Thread creatingThread = next.getCreatingThread();
+        if (creatingThread == thread) {
+          throw new ProvisionException("Circular dependency detected when waiting for " + key
+              + " in " + this + " as it depends on an object being created by "
+              + thread.getName());
+        }
+        next = waiting.get(creatingThread);
+      }
+      return instance.await(key);
+    }
+    finally {
+      waiting.remove(thread);
+    }
+  }
+
+  protected Object create(Key<?> key, Provider<?> creator, ScopedInstance instance) {
+    Object value;
+    try {
+      value = creator.get();
+    }
+    catch (RuntimeException e) {
+      map.remove(key, instance);
+      instance.failed(e);
+      throw e;
+    }
+    catch (Error e) {
+      map.remove(key, instance);
+      instance.failed(e);
+      throw e;
+    }
+    // null values are not cached
+    if (value == null) {
+      map.remove(key, instance);
+    }
+    instance.created(value, sequence.incrementAndGet());
+    return value;
+  }
+
+  /** The provider of the scoped object for a key */
+  public class ScopedProvider<T> implements Provider<T> {
+    private final Key<T> key;
+    private final Provider<T> creator;
+
+    public ScopedProvider(Key<T> key, Provider<T> creator) {
+      this.key = key;
+      this.creator = creator;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get() {
+      return (T) getOrCreate(key, creator);
+    }
+
+    /** Returns the cached value or null if it has not been created in the scope */
+    @SuppressWarnings("unchecked")
+    public T getCachedValue() {
+      return (T) CloseableScope.this.getCachedValue(key);
+    }
+
+    @Override
+    public String toString() {
+      return "ScopedProvider(" + key + " in " + CloseableScope.this + ")";
+    }
+  }
+
+  /** An object in the scope which is either being created or has been created */
+  protected static class ScopedInstance {
+    private final Thread creatingThread = Thread.currentThread();
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile boolean done;
+    private volatile Object value;
+    private volatile Throwable failure;
+    private long sequence;
+
+    public boolean isDone() {
+      return done;
+    }
+
+    public boolean isCreatingThread() {
+      return creatingThread == Thread.currentThread();
+    }
+
+    public Thread getCreatingThread() {
+      return creatingThread;
+    }
+
+    /** Returns the created value or null if it has not been created yet */
+    public Object getValue() {
+      return done ? value : null;
+    }
+
+    /** Returns the order in which the object was created within the scope */
+    public long getSequence() {
+      return sequence;
+    }
+
+    void created(Object value, long sequence) {
+      this.value = value;
+      this.sequence = sequence;
+      done = true;
+      latch.countDown();
+    }
+
+    void failed(Throwable failure) {
+      this.failure = failure;
+      done = true;
+      latch.countDown();
+    }
+
+    Object getResult() {
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      return value;
+    }
+
+    /** Waits for the object to be created or to fail, reporting an interrupt to the errors */
+    void awaitDone(Key<?> key, CloseErrors errors) {
+      try {
+        latch.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        errors.closeError(key, null, e);
+      }
+    }
+
+    Object await(Key<?> key) {
+      try {
+        latch.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ProvisionException("Interrupted while waiting for " + key + " to be created", e);
+      }
+      return getResult();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CloseableScope(" + scopeAnnotation.getSimpleName() + ")";
+  }
 }
@@ -0,0 +1,34 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.util;
+
+/**
+ * The implementation of the {@link ConcurrentSingleton} scope. Each object is created at most once
+ * per key using a lock for that key only, any threads which would deadlock waiting for each other
+ * to create objects fail with a {@link com.google.inject.ProvisionException} and the objects are
+ * closed in the reverse order to which they were created when the scope or injector is closed.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class ConcurrentSingletonScope extends CloseableScope {
+
+  public ConcurrentSingletonScope() {
+    super(ConcurrentSingleton.class);
+  }
+}
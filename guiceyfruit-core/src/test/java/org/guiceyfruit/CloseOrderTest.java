@@ -0,0 +1,220 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import junit.framework.TestCase;
+import org.guiceyfruit.jsr250.Jsr250Module;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/** @version $Revision: 1.1 $ */
+public class CloseOrderTest extends TestCase {
+  static final List<String> closed = Collections.synchronizedList(Lists.<String>newArrayList());
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    closed.clear();
+  }
+
+  public void testClosesDependentsFirst() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module());
+    injector.getInstance(Top.class);
+
+    Injectors.close(injector);
+
+    assertEquals("[top, middle, bottom]", closed.toString());
+  }
+
+  public void testClosesConcurrentlyWithTimeout() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module());
+    injector.getInstance(Top.class);
+    injector.getInstance(Slow.class);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Injectors.close(injector, Singleton.class, new CloseErrorsImpl(this), executor, 200,
+          TimeUnit.MILLISECONDS);
+      fail("Should have timed out closing the slow bean");
+    }
+    catch (CloseFailedException e) {
+      assertEquals("errors " + e.getMessages(), 1, e.getMessages().size());
+    }
+    finally {
+      Slow.latch.countDown();
+      executor.shutdown();
+    }
+
+    assertEquals("[top, middle, bottom]", closed.toString());
+  }
+
+  public void testTimesOutClosesQueuedOnBusyExecutor() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module());
+    injector.getInstance(Stubborn.class);
+    injector.getInstance(AnotherStubborn.class);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    long start = System.nanoTime();
+    try {
+      Injectors.close(injector, Singleton.class, new CloseErrorsImpl(this), executor, 200,
+          TimeUnit.MILLISECONDS);
+      fail("Should have timed out closing the stubborn beans");
+    }
+    catch (CloseFailedException e) {
+      assertEquals("errors " + e.getMessages(), 2, e.getMessages().size());
+    }
+    finally {
+      Stubborn.latch.countDown();
+      executor.shutdown();
+    }
+    assertTrue("Should not have waited for the executor thread",
+        System.nanoTime() - start < TimeUnit.SECONDS.toNanos(Stubborn.MAX_WAIT_SECONDS));
+  }
+
+  public void testClosesConcurrentlyWithOnlyObjectsWithoutCloseMethods() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module());
+    injector.getInstance(Plain.class);
+
+    closeConcurrently(injector);
+
+    assertEquals("[]", closed.toString());
+  }
+
+  public void testClosesConcurrentlyWithDependencyWithoutCloseMethod() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module());
+    injector.getInstance(UsesPlain.class);
+
+    closeConcurrently(injector);
+
+    assertEquals("[usesPlain]", closed.toString());
+  }
+
+  private void closeConcurrently(Injector injector) throws CloseFailedException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Injectors.close(injector, Singleton.class, new CloseErrorsImpl(this), executor, 5,
+          TimeUnit.SECONDS);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Singleton
+  public static class Plain {
+  }
+
+  @Singleton
+  public static class UsesPlain {
+    @Inject
+    Plain plain;
+
+    @PreDestroy
+    public void close() {
+      closed.add("usesPlain");
+    }
+  }
+
+  @Singleton
+  public static class Bottom {
+    @PreDestroy
+    public void close() {
+      closed.add("bottom");
+    }
+  }
+
+  @Singleton
+  public static class Middle {
+    @Inject
+    Provider<Bottom> bottom;
+
+    @PreDestroy
+    public void close() {
+      closed.add("middle");
+    }
+  }
+
+  @Singleton
+  public static class Top {
+    final Bottom bottom;
+
+    @Inject
+    Middle middle;
+
+    @Inject
+    public Top(Bottom bottom) {
+      this.bottom = bottom;
+    }
+
+    @PreDestroy
+    public void close() {
+      closed.add("top");
+    }
+  }
+
+  @Singleton
+  public static class Slow {
+    static final CountDownLatch latch = new CountDownLatch(1);
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+      latch.await();
+    }
+  }
+
+  /** Ignores interrupts so that it keeps the single executor thread busy */
+  @Singleton
+  public static class Stubborn {
+    static final int MAX_WAIT_SECONDS = 5;
+    static final CountDownLatch latch = new CountDownLatch(1);
+
+    @PreDestroy
+    public void close() {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(MAX_WAIT_SECONDS);
+      while (latch.getCount() > 0 && System.nanoTime() < deadline) {
+        try {
+          latch.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+          // lets keep on waiting
+        }
+      }
+    }
+  }
+
+  @Singleton
+  public static class AnotherStubborn extends Stubborn {
+  }
+}
@@ -22,16 +22,28 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
 import org.hamcrest.Matcher;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
+import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
 import com.google.inject.matcher.Matchers;
+import com.google.inject.name.Names;
 
 /** @version $Revision: 1.1 $ */
 public class InjectorsTest extends TestCase {
@@ -46,6 +58,85 @@ public class InjectorsTest extends TestCase {
         Matchers.subclassesOf(C.class).and(Matchers.annotatedWith(Blue.class))), hasSize(1));
   }
 
+  public void testIndexesParentBindingsInterfacesAndGenericTypes() throws Exception {
+    Injector parent = Guice.createInjector(new MyModule());
+    Injector injector = parent.createChildInjector(new AbstractModule() {
+      protected void configure() {
+        bind(new TypeLiteral<List<String>>() {}).toInstance(Lists.newArrayList("a"));
+        bind(new TypeLiteral<List<Integer>>() {}).toInstance(Lists.newArrayList(1));
+      }
+    });
+
+    assertMatches(Injectors.getInstancesOf(injector, A.class), hasSize(2));
+    assertMatches(Injectors.getInstancesOf(parent, Collection.class), hasSize(0));
+    assertMatches(Injectors.getInstancesOf(injector, Collection.class), hasSize(2));
+    assertMatches(Injectors.getBindingsOf(injector, new TypeLiteral<Collection<String>>() {}),
+        hasSize(1));
+    assertMatches(Injectors.getBindingsOf(injector, new TypeLiteral<Iterable<Integer>>() {}),
+        hasSize(1));
+    assertTrue(Injectors.hasBinding(injector, Iterable.class));
+    assertFalse(Injectors.hasBinding(parent, Iterable.class));
+    assertEquals(List.class,
+        Injectors.getKeyType(Key.get(new TypeLiteral<List<String>>() {})));
+  }
+
+  public void testIterateInstancesProvisionsOnDemand() throws Exception {
+    final AtomicInteger created = new AtomicInteger();
+    Injector injector = Guice.createInjector(new AbstractModule() {
+      protected void configure() {
+        for (int i = 0; i < 3; i++) {
+          bind(A.class).annotatedWith(Names.named("a" + i)).toProvider(new Provider<A>() {
+            public A get() {
+              created.incrementAndGet();
+              return new A();
+            }
+          });
+        }
+      }
+    });
+
+    Iterable<A> instances = Injectors.iterateInstancesOf(injector, A.class);
+    assertEquals(0, created.get());
+    assertNotNull(instances.iterator().next());
+    assertEquals(1, created.get());
+    assertEquals(3, Iterables.size(instances));
+  }
+
+  public void testGetInstancesInParallel() throws Exception {
+    Injector injector = Guice.createInjector(new MyModule());
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      assertMatches(Injectors.getInstancesOf(injector, A.class, executor), hasSize(2));
+      assertMatches(Injectors.getInstancesOf(injector,
+          Matchers.subclassesOf(C.class).and(Matchers.annotatedWith(Blue.class)), executor),
+          hasSize(1));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testProvisionsUnscopedObjectsConcurrently() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(2);
+    Injector injector = Guice.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(CountDownLatch.class).toInstance(latch);
+        bind(FirstParallel.class);
+        bind(SecondParallel.class);
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (Parallel parallel : Injectors.getInstancesOf(injector, Parallel.class, executor)) {
+        assertTrue("Should have been created at the same time as the other object",
+            parallel.concurrent);
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
   public static class MyModule extends AbstractModule {
     protected void configure() {
       bind(C.class);
@@ -70,6 +161,29 @@ public class InjectorsTest extends TestCase {
     }
   }
 
+  public abstract static class Parallel {
+    final boolean concurrent;
+
+    Parallel(CountDownLatch latch) throws InterruptedException {
+      latch.countDown();
+      concurrent = latch.await(5, TimeUnit.SECONDS);
+    }
+  }
+
+  public static class FirstParallel extends Parallel {
+    @Inject
+    public FirstParallel(CountDownLatch latch) throws InterruptedException {
+      super(latch);
+    }
+  }
+
+  public static class SecondParallel extends Parallel {
+    @Inject
+    public SecondParallel(CountDownLatch latch) throws InterruptedException {
+      super(latch);
+    }
+  }
+
   // TODO hack to get around generics issue with hamcrest
   private void assertMatches(Collection<?> set, Matcher<Collection<Object>> matcher) {
     Collection<Object> list = Lists.newArrayList(set);
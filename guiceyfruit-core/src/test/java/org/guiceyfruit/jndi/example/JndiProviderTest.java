@@ -16,15 +16,26 @@
 
 package org.guiceyfruit.jndi.example;
 
+import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Singleton;
+import com.google.inject.name.Names;
 import java.io.InputStream;
 import java.util.Hashtable;
 import java.util.Properties;
 import javax.naming.Binding;
+import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
 import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.jndi.GuiceInitialContextFactory;
+import org.guiceyfruit.jndi.JndiBindings;
+import org.guiceyfruit.support.Closer;
 
 /** @version $Revision: 1.1 $ */
 public class JndiProviderTest extends TestCase {
@@ -72,6 +83,95 @@ public class JndiProviderTest extends TestCase {
     assertNotNull("Injector should not be null", injector);
   }
 
+  public void testLazyBindings() throws Exception {
+    InputStream in = getClass().getResourceAsStream("jndi-example.properties");
+    Properties properties = new Properties();
+    properties.load(in);
+    properties.setProperty(JndiBindings.LAZY_BINDINGS, "true");
+
+    InitialContext context = new InitialContext(new Hashtable(properties));
+
+    SomeBean someBean = assertLookup(context, "org.guiceyfruit.jndi.example.SomeBean",
+        SomeBean.class);
+    assertEquals("someBean.name", "James", someBean.getName());
+    assertEquals("Foo", assertLookup(context, "foo", MyBean.class).getName());
+    assertEquals("James", assertLookup(context, "class java.lang.String/someBean.name",
+        String.class));
+    Context subcontext = assertLookup(context, "class java.lang.String", Context.class);
+    assertEquals("James", subcontext.lookup("someBean.name"));
+    assertNotNull(assertLookup(context, "myInjector", Injector.class));
+    assertSame(context.lookup("myInjector"), context.lookup("com.google.inject.Injector"));
+    try {
+      context.lookup("doesNotExist");
+      fail("Should not find an unbound name");
+    }
+    catch (NameNotFoundException e) {
+      // expected
+    }
+  }
+
+  public void testInjectorIsSharedUntilInvalidated() throws Exception {
+    InputStream in = getClass().getResourceAsStream("jndi-example.properties");
+    Properties properties = new Properties();
+    properties.load(in);
+    Hashtable environment = new Hashtable(properties);
+
+    InitialContext context1 = new InitialContext(environment);
+    InitialContext context2 = new InitialContext(environment);
+    Injector injector = (Injector) context1.lookup("myInjector");
+    assertSame("Injector should be shared", injector, context2.lookup("myInjector"));
+
+    try {
+      context1.bind("foo2", "bar");
+      fail("Shared context should be frozen");
+    }
+    catch (OperationNotSupportedException e) {
+      // expected
+    }
+
+    GuiceInitialContextFactory.invalidate(environment);
+    InitialContext context3 = new InitialContext(environment);
+    assertNotSame("Injector should be recreated", injector, context3.lookup("myInjector"));
+  }
+
+  public void testCredentialsAreNotPartOfTheSharedInjector() throws Exception {
+    InputStream in = getClass().getResourceAsStream("jndi-example.properties");
+    Properties properties = new Properties();
+    properties.load(in);
+    Hashtable environment1 = new Hashtable(properties);
+    environment1.put(Context.SECURITY_PRINCIPAL, "alice");
+    environment1.put(Context.SECURITY_CREDENTIALS, "secret1");
+    Hashtable environment2 = new Hashtable(properties);
+    environment2.put(Context.SECURITY_PRINCIPAL, "bob");
+    environment2.put(Context.SECURITY_CREDENTIALS, "secret2");
+
+    InitialContext context1 = new InitialContext(environment1);
+    InitialContext context2 = new InitialContext(environment2);
+    Injector injector = (Injector) context1.lookup("myInjector");
+    assertSame("Injector should be shared", injector, context2.lookup("myInjector"));
+    assertEquals("secret2", context2.getEnvironment().get(Context.SECURITY_CREDENTIALS));
+    assertNull("Credentials should not be bound in the injector", injector.getExistingBinding(
+        Key.get(String.class, Names.named(Context.SECURITY_CREDENTIALS))));
+
+    GuiceInitialContextFactory.invalidate(environment1);
+  }
+
+  public void testInvalidateClosesSharedInjector() throws Exception {
+    InputStream in = getClass().getResourceAsStream("jndi-example.properties");
+    Properties properties = new Properties();
+    properties.load(in);
+    Hashtable environment = new Hashtable(properties);
+    environment.put(Injectors.MODULE_CLASS_NAMES, ClosingModule.class.getName());
+
+    InitialContext context = new InitialContext(environment);
+    Injector injector = (Injector) context.lookup("myInjector");
+    ClosedBean bean = injector.getInstance(ClosedBean.class);
+    assertFalse(bean.closed);
+
+    GuiceInitialContextFactory.invalidate(environment);
+    assertTrue("Should have closed the discarded injector", bean.closed);
+  }
+
   protected <T> T assertLookup(InitialContext context, String name, Class<T> type)
       throws NamingException {
     Object value = context.lookup(name);
@@ -83,4 +183,20 @@ public class JndiProviderTest extends TestCase {
     return type.cast(value);
   }
 
+  public static class ClosingModule extends AbstractModule {
+    protected void configure() {
+      bind(ClosedBean.class).in(Singleton.class);
+      bind(Closer.class).toInstance(new Closer() {
+        public void close(Object object) {
+          if (object instanceof ClosedBean) {
+            ((ClosedBean) object).closed = true;
+          }
+        }
+      });
+    }
+  }
+
+  public static class ClosedBean {
+    volatile boolean closed;
+  }
 }
@@ -0,0 +1,241 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jndi.internal;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import javax.naming.Context;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.ObjectChangeListener;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/** @version $Revision: 1.1 $ */
+public class JndiContextTest extends TestCase {
+
+  public void testBindAndLookupNestedNames() throws Exception {
+    JndiContext context = new JndiContext();
+    context.bind("a/b/c", "abc");
+    context.bind("a/d", "ad");
+
+    assertEquals("abc", context.lookup("a/b/c"));
+    Context subcontext = (Context) context.lookup("a");
+    assertEquals("a", subcontext.getNameInNamespace());
+    assertEquals("ad", subcontext.lookup("d"));
+    assertEquals("abc", subcontext.lookup("b/c"));
+
+    // binding into a subcontext is visible from the root
+    subcontext.bind("e", "ae");
+    assertEquals("ae", context.lookup("a/e"));
+
+    assertEquals(Sets.newHashSet("b", "d", "e"), getNames(subcontext.list("")));
+
+    context.unbind("a/d");
+    try {
+      context.lookup("a/d");
+      fail("Should have been unbound");
+    }
+    catch (NameNotFoundException e) {
+      // expected
+    }
+  }
+
+  public void testFreezeCompactsNamespace() throws Exception {
+    JndiContext context = new JndiContext();
+    context.bind("a/b/c", "abc");
+    Context subcontext = (Context) context.lookup("a/b");
+    context.freeze();
+
+    assertEquals("abc", context.lookup("a/b/c"));
+    assertEquals("abc", subcontext.lookup("c"));
+    assertEquals(Sets.newHashSet("a"), getNames(context.list("")));
+    try {
+      subcontext.bind("d", "abd");
+      fail("Frozen context should not allow binding");
+    }
+    catch (OperationNotSupportedException e) {
+      // expected
+    }
+  }
+
+  public void testSubcontextViewsAreReused() throws Exception {
+    JndiContext context = new JndiContext();
+    context.bind("a/b/c", "abc");
+    context.freeze();
+
+    Context subcontext = (Context) context.lookup("a/b");
+    assertSame(subcontext, context.lookup("a/b"));
+    assertEquals("a/b", subcontext.getNameInNamespace());
+    assertEquals("abc", subcontext.lookup("c"));
+
+    // changing the environment creates new views with the new environment
+    context.addToEnvironment("foo", "bar");
+    Context newSubcontext = (Context) context.lookup("a/b");
+    assertNotSame(subcontext, newSubcontext);
+    assertEquals("bar", newSubcontext.getEnvironment().get("foo"));
+    assertNull(subcontext.getEnvironment().get("foo"));
+  }
+
+  public void testNamingListeners() throws Exception {
+    JndiContext context = new JndiContext();
+    context.bind("a/b", "ab");
+    EventContext subcontext = (EventContext) context.lookup("a");
+
+    RecordingListener objectListener = new RecordingListener();
+    RecordingListener subtreeListener = new RecordingListener();
+    context.addNamingListener("a/b", EventContext.OBJECT_SCOPE, objectListener);
+    subcontext.addNamingListener("", EventContext.SUBTREE_SCOPE, subtreeListener);
+
+    context.rebind("a/b", "ab2");
+    context.bind("a/c/d", "acd");
+    context.bind("x", "x");
+    context.unbind("a/b");
+
+    assertEquals(Lists.newArrayList("changed a/b ab2", "removed a/b"), objectListener.events);
+    assertEquals(Lists.newArrayList("changed b ab2", "added c/d acd", "removed b"),
+        subtreeListener.events);
+
+    subcontext.removeNamingListener(subtreeListener);
+    context.bind("a/e", "ae");
+    assertEquals(3, subtreeListener.events.size());
+  }
+
+  public void testCloseRemovesListenersOfContext() throws Exception {
+    JndiContext context = new JndiContext();
+    context.bind("a/x", "ax");
+    EventContext subcontext = (EventContext) context.lookup("a");
+
+    RecordingListener listener = new RecordingListener();
+    RecordingListener subcontextListener = new RecordingListener();
+    context.addNamingListener("", EventContext.SUBTREE_SCOPE, listener);
+    subcontext.addNamingListener("", EventContext.SUBTREE_SCOPE, subcontextListener);
+    subcontext.addNamingListener("b", EventContext.OBJECT_SCOPE, subcontextListener);
+
+    subcontext.close();
+    context.bind("a/b", "ab");
+
+    assertEquals(Lists.newArrayList("added a/b ab"), listener.events);
+    assertEquals("Should have removed the listeners of the closed context",
+        Lists.newArrayList(), subcontextListener.events);
+  }
+
+  public void testFailingListenerDoesNotFailChange() throws Exception {
+    JndiContext context = new JndiContext();
+    RecordingListener listener = new RecordingListener();
+    context.addNamingListener("", EventContext.SUBTREE_SCOPE, new NamespaceChangeListener() {
+      public void objectAdded(NamingEvent event) {
+        throw new IllegalStateException("Expected failure");
+      }
+
+      public void objectRemoved(NamingEvent event) {
+      }
+
+      public void objectRenamed(NamingEvent event) {
+      }
+
+      public void namingExceptionThrown(NamingExceptionEvent event) {
+      }
+    });
+    context.addNamingListener("", EventContext.SUBTREE_SCOPE, listener);
+
+    context.bind("a", "a");
+    assertEquals("a", context.lookup("a"));
+    assertEquals(Lists.newArrayList("added a a"), listener.events);
+  }
+
+  public void testConcurrentBinds() throws Exception {
+    final JndiContext context = new JndiContext();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final int thread = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < 100; j++) {
+              context.bind("t" + thread + "/n" + j, "v" + j);
+            }
+          }
+          catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (int i = 0; i < threads.length; i++) {
+      for (int j = 0; j < 100; j++) {
+        assertEquals("v" + j, context.lookup("t" + i + "/n" + j));
+      }
+    }
+  }
+
+  public static class RecordingListener
+      implements NamespaceChangeListener, ObjectChangeListener {
+    private final List<String> events = Lists.newArrayList();
+
+    public void objectAdded(NamingEvent event) {
+      events.add("added " + event.getNewBinding().getName() + " "
+          + event.getNewBinding().getObject());
+    }
+
+    public void objectRemoved(NamingEvent event) {
+      events.add("removed " + event.getOldBinding().getName());
+    }
+
+    public void objectRenamed(NamingEvent event) {
+      events.add("renamed " + event.getOldBinding().getName());
+    }
+
+    public void objectChanged(NamingEvent event) {
+      events.add("changed " + event.getNewBinding().getName() + " "
+          + event.getNewBinding().getObject());
+    }
+
+    public void namingExceptionThrown(NamingExceptionEvent event) {
+      events.add("exception " + event.getException());
+    }
+  }
+
+  private Set<String> getNames(NamingEnumeration enumeration) throws Exception {
+    Set<String> answer = Sets.newHashSet();
+    while (enumeration.hasMore()) {
+      answer.add(((NameClassPair) enumeration.next()).getName());
+    }
+    return answer;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jsr250;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.google.inject.name.Names;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Resource;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import junit.framework.TestCase;
+import org.guiceyfruit.jndi.internal.JndiContext;
+
+/** @version $Revision: 1.1 $ */
+public class JndiPrefetcherTest extends TestCase {
+  private final AtomicInteger lookups = new AtomicInteger();
+
+  public void testPrefetchesUnboundNames() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module() {
+      protected void configure() {
+        super.configure();
+
+        bindConstant().annotatedWith(Names.named("bar")).to("Bar");
+        bind(MyBean.class);
+        bind(OtherBean.class);
+      }
+
+      @Provides
+      @Singleton
+      public Context createJndiContext() throws Exception {
+        Context answer = new JndiContext() {
+          @Override
+          public Object lookup(String name) throws NamingException {
+            lookups.incrementAndGet();
+            return super.lookup(name);
+          }
+        };
+        answer.bind("foo", "Foo");
+        return answer;
+      }
+    });
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    Map<String, NamingException> failures;
+    try {
+      failures = injector.getInstance(JndiPrefetcher.class).prefetch(executor, 10,
+          TimeUnit.SECONDS);
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertEquals("failures " + failures, 1, failures.size());
+    assertTrue("failures " + failures, failures.containsKey("missing"));
+    assertEquals("Only the names not bound in the injector are looked up", 2, lookups.get());
+
+    MyBean bean = injector.getInstance(MyBean.class);
+    assertEquals("Foo", bean.foo);
+    assertEquals("Bar", bean.bar);
+    assertEquals("The prefetched object should be injected", 2, lookups.get());
+
+    injector.getInstance(MyBean.class);
+    assertEquals("JNDI objects are not cached by default", 3, lookups.get());
+  }
+
+  public void testReusedModuleKeepsTheNamesOfEachInjector() throws Exception {
+    Jsr250Module module = new Jsr250Module() {
+      @Provides
+      @Singleton
+      public Context createJndiContext() throws Exception {
+        return new JndiContext();
+      }
+    };
+    Injector first = Guice.createInjector(module);
+    Injector second = Guice.createInjector(module);
+
+    // encountered just in time by the first injector once the second one has been configured
+    first.getMembersInjector(MyBean.class);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    Map<String, NamingException> failures;
+    try {
+      failures = second.getInstance(JndiPrefetcher.class).prefetch(executor, 10,
+          TimeUnit.SECONDS);
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertTrue("failures " + failures, failures.isEmpty());
+  }
+
+  public static class MyBean {
+    @Resource
+    public String foo;
+
+    @Resource
+    public String bar;
+  }
+
+  public static class OtherBean {
+    public String missing;
+
+    @Resource(name = "missing")
+    public void setMissing(String missing) {
+      this.missing = missing;
+    }
+  }
+}
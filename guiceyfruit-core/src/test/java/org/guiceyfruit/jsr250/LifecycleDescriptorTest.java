@@ -0,0 +1,83 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jsr250;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import junit.framework.TestCase;
+
+/** @version $Revision: 1.1 $ */
+public class LifecycleDescriptorTest extends TestCase {
+
+  public void testSuperClassMethodsFirst() throws Exception {
+    LifecycleDescriptor descriptor = LifecycleDescriptor.getDescriptor(Child.class);
+    assertSame("cached", descriptor, LifecycleDescriptor.getDescriptor(Child.class));
+
+    assertMethods(descriptor.getPostConstructMethods(), Parent.class, "parentStart",
+        Child.class, "childStart");
+    // the overridden stop method is only invoked once using the child's declaration
+    assertMethods(descriptor.getPreDestroyMethods(), Child.class, "stop");
+
+    Child child = new Child();
+    descriptor.postConstruct(child);
+    assertEquals("parentStart,childStart", child.calls.toString());
+  }
+
+  public void testCachesClassesWithoutLifecycleMethods() throws Exception {
+    LifecycleDescriptor descriptor = LifecycleDescriptor.getDescriptor(String.class);
+    assertTrue("empty", descriptor.isEmpty());
+    assertSame("cached", descriptor, LifecycleDescriptor.getDescriptor(Object.class));
+  }
+
+  protected void assertMethods(List<Method> methods, Object... expected) {
+    assertEquals("methods " + methods, expected.length / 2, methods.size());
+    for (int i = 0; i < methods.size(); i++) {
+      Method method = methods.get(i);
+      assertEquals("declaring class", expected[i * 2], method.getDeclaringClass());
+      assertEquals("name", expected[i * 2 + 1], method.getName());
+    }
+  }
+
+  public static class Parent {
+    StringBuilder calls = new StringBuilder();
+
+    @PostConstruct
+    public void parentStart() {
+      calls.append("parentStart");
+    }
+
+    @PreDestroy
+    public void stop() {
+    }
+  }
+
+  public static class Child extends Parent {
+    @PostConstruct
+    public void childStart() {
+      calls.append(",childStart");
+    }
+
+    @Override
+    @PreDestroy
+    public void stop() {
+    }
+  }
+}
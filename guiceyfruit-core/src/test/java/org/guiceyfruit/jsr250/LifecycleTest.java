@@ -21,7 +21,10 @@ import com.google.inject.CreationException;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import junit.framework.TestCase;
@@ -53,6 +56,106 @@ public class LifecycleTest extends TestCase {
       assertTrue("The pre destroy lifecycle should have been invoked on bean", bean.preDestroy);
   }
 
+  public void testUnusedSingletonsNotCreatedOnClose() throws CreationException, CloseFailedException {
+    Injector injector = Guice.createInjector(new Jsr250Module(), new AbstractModule() {
+      protected void configure() {
+        bind(MyBean.class).in(Singleton.class);
+        bind(LazyBean.class).in(Singleton.class);
+      }
+    });
+    MyBean bean = injector.getInstance(MyBean.class);
+    LazyBean.instanceCount = 0;
+
+    Injectors.close(injector);
+
+    assertTrue("The pre destroy lifecycle should have been invoked on bean", bean.preDestroy);
+    assertEquals("The unused singleton should not have been created", 0, LazyBean.instanceCount);
+  }
+
+  public void testUnusedSingletonOfSharedClassNotCreatedOnClose()
+      throws CreationException, CloseFailedException {
+    Injector injector = Guice.createInjector(new Jsr250Module(), new AbstractModule() {
+      protected void configure() {
+        bind(Key.get(LazyBean.class, Names.named("primary"))).to(LazyBean.class)
+            .in(Singleton.class);
+        bind(Key.get(LazyBean.class, Names.named("replica"))).to(LazyBean.class)
+            .in(Singleton.class);
+      }
+    });
+    LazyBeanUser user = injector.getInstance(LazyBeanUser.class);
+    assertNotNull("Should have injected the primary bean", user.primary);
+    LazyBean.instanceCount = 0;
+    LazyBean.preDestroyCount = 0;
+
+    Injectors.close(injector);
+
+    assertEquals("The unused singleton should not have been created", 0, LazyBean.instanceCount);
+    assertEquals("Only the primary bean should have been closed", 1, LazyBean.preDestroyCount);
+  }
+
+  public void testUnusedSingletonOfUnscopedClassNotCreatedOnClose()
+      throws CreationException, CloseFailedException {
+    Injector injector = Guice.createInjector(new Jsr250Module(), new AbstractModule() {
+      protected void configure() {
+        bind(Key.get(LazyBean.class, Names.named("primary"))).to(LazyBean.class)
+            .in(Singleton.class);
+      }
+    });
+    assertNotNull(injector.getInstance(LazyBeanPrototypeUser.class).bean);
+    LazyBean.instanceCount = 0;
+    LazyBean.preDestroyCount = 0;
+
+    Injectors.close(injector);
+
+    assertEquals("The unused singleton should not have been created", 0, LazyBean.instanceCount);
+    assertEquals("The unscoped bean should not have been closed", 0, LazyBean.preDestroyCount);
+  }
+
+  public void testSingletonOfSharedClassLookedUpDirectlyIsClosed()
+      throws CreationException, CloseFailedException {
+    Injector injector = Guice.createInjector(new Jsr250Module(), new AbstractModule() {
+      protected void configure() {
+        bind(Key.get(LazyBean.class, Names.named("primary"))).to(LazyBean.class)
+            .in(Singleton.class);
+      }
+    });
+    injector.getInstance(LazyBeanPrototypeUser.class);
+    injector.getInstance(Key.get(LazyBean.class, Names.named("primary")));
+    LazyBean.instanceCount = 0;
+    LazyBean.preDestroyCount = 0;
+
+    Injectors.close(injector);
+
+    assertEquals("No bean should have been created", 0, LazyBean.instanceCount);
+    assertEquals("The primary bean should have been closed", 1, LazyBean.preDestroyCount);
+  }
+
+  public static class LazyBean {
+    static int instanceCount;
+    static int preDestroyCount;
+
+    public LazyBean() {
+      instanceCount++;
+    }
+
+    @PreDestroy
+    public void preDestroy() throws Exception {
+      preDestroyCount++;
+    }
+  }
+
+  @Singleton
+  public static class LazyBeanUser {
+    @Inject
+    @Named("primary")
+    public LazyBean primary;
+  }
+
+  public static class LazyBeanPrototypeUser {
+    @Inject
+    public LazyBean bean;
+  }
+
   public static class MyBean {
     @Inject
     public AnotherBean another;
@@ -0,0 +1,133 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.jsr250;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.name.Names;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Resource;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import junit.framework.TestCase;
+import org.guiceyfruit.jndi.internal.JndiContext;
+
+/** @version $Revision: 1.1 $ */
+public class NamedResolutionCacheTest extends TestCase {
+  private final AtomicInteger lookups = new AtomicInteger();
+
+  public void testJndiLookupsAreCachedWithTimeToLive() throws Exception {
+    Injector injector = createInjector(60000);
+
+    MyBean bean1 = injector.getInstance(MyBean.class);
+    MyBean bean2 = injector.getInstance(MyBean.class);
+    assertEquals("Foo", bean1.foo);
+    assertEquals("Bar", bean1.bar);
+    assertSame(bean1.foo, bean2.foo);
+    assertEquals("JNDI should only be used for foo once", 1, lookups.get());
+
+    injector.getInstance(NamedResolutionCache.class).invalidate("foo");
+    injector.getInstance(MyBean.class);
+    assertEquals(2, lookups.get());
+  }
+
+  public void testJndiLookupsAreNotCachedByDefault() throws Exception {
+    Injector injector = createInjector(0);
+
+    injector.getInstance(MyBean.class);
+    injector.getInstance(MyBean.class);
+    assertEquals(2, lookups.get());
+  }
+
+  public void testJndiLookupsAreCachedForEachContext() throws Exception {
+    Injector injector = createInjector(60000);
+    NamedResolutionCache cache = injector.getInstance(NamedResolutionCache.class);
+    Context first = injector.getInstance(Context.class);
+    Context second = injector.getInstance(Context.class);
+    second.rebind("foo", "Foo2");
+
+    for (int i = 0; i < 2; i++) {
+      assertEquals("Foo", cache.lookupInJndi(first, "foo"));
+      assertEquals("Foo2", cache.lookupInJndi(second, "foo"));
+    }
+    assertEquals("JNDI should only be used for foo once in each context", 2, lookups.get());
+  }
+
+  public void testCachedMissesThrowNewExceptions() throws Exception {
+    Injector injector = createInjector(0);
+    NamedResolutionCache cache = injector.getInstance(NamedResolutionCache.class);
+    cache.setJndiMissTimeToLive(60000);
+    Context context = injector.getInstance(Context.class);
+
+    NameNotFoundException first = assertLookupFails(cache, context);
+    NameNotFoundException second = assertLookupFails(cache, context);
+    NameNotFoundException third = assertLookupFails(cache, context);
+    assertEquals("JNDI should only be used for the miss once", 1, lookups.get());
+    assertNotSame(second, third);
+    assertSame(first, second.getRootCause());
+    assertSame(first, third.getRootCause());
+  }
+
+  private NameNotFoundException assertLookupFails(NamedResolutionCache cache, Context context)
+      throws NamingException {
+    try {
+      cache.lookupInJndi(context, "missing");
+      fail("Should not have found missing");
+      return null;
+    }
+    catch (NameNotFoundException e) {
+      return e;
+    }
+  }
+
+  private Injector createInjector(final long timeToLive) {
+    return Guice.createInjector(new Jsr250Module() {
+      protected void configure() {
+        super.configure();
+
+        bindConstant().annotatedWith(Names.named(NamedResolutionCache.JNDI_TIME_TO_LIVE))
+            .to(timeToLive);
+        bindConstant().annotatedWith(Names.named("bar")).to("Bar");
+      }
+
+      @Provides
+      public Context createJndiContext() throws Exception {
+        Context answer = new JndiContext() {
+          @Override
+          public Object lookup(String name) throws NamingException {
+            lookups.incrementAndGet();
+            return super.lookup(name);
+          }
+        };
+        answer.bind("foo", "Foo");
+        return answer;
+      }
+    });
+  }
+
+  public static class MyBean {
+    @Resource
+    public String foo;
+
+    @Resource
+    public String bar;
+  }
+}
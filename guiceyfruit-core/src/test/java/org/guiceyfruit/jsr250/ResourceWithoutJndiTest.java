@@ -16,9 +16,12 @@
 
 package org.guiceyfruit.jsr250;
 
+import com.google.common.base.Supplier;
 import com.google.inject.CreationException;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Provider;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Resource;
 import junit.framework.TestCase;
 import org.guiceyfruit.support.CloseFailedException;
@@ -50,6 +53,55 @@ public class ResourceWithoutJndiTest extends TestCase {
     assertEquals("Should have injected correct bar", "XYZ", bean.bar.name);
   }
 
+  public void testDeferredResourceInjection() throws CreationException {
+    final AtomicInteger counter = new AtomicInteger();
+    Injector injector = Guice.createInjector(new Jsr250Module() {
+      protected void configure() {
+        super.configure();
+
+        bind(MyDeferredBean.class);
+
+        bind(AnotherBean.class, "foo").toProvider(new Provider<AnotherBean>() {
+          public AnotherBean get() {
+            return new AnotherBean("Foo" + counter.incrementAndGet());
+          }
+        });
+        bindInstance("xyz", new AnotherBean("XYZ"));
+      }
+    });
+
+    MyDeferredBean bean = injector.getInstance(MyDeferredBean.class);
+    assertNotNull("Should have injected a foo provider", bean.foo);
+    assertNotNull("Should have injected a bar supplier", bean.bar);
+    assertEquals("Should not have resolved foo yet", 0, counter.get());
+
+    assertEquals("Should have injected correct foo", "Foo1", bean.foo.get().name);
+    assertEquals("Should provide foo on each call", "Foo2", bean.foo.get().name);
+    assertEquals("Should have injected correct bar", "XYZ", bean.bar.get().name);
+
+    assertEquals("Should have supplied correct memoized foo", "Foo3", bean.memoizedFoo.get().name);
+    assertSame("Should have memoized foo", bean.memoizedFoo.get(), bean.memoizedFoo.get());
+    assertEquals("Should have supplied foo once", 3, counter.get());
+
+    MyDeferredBean another = injector.getInstance(MyDeferredBean.class);
+    assertEquals("Should supply foo for each bean", "Foo4", another.memoizedFoo.get().name);
+  }
+
+  public static class MyDeferredBean {
+    @Resource
+    public Provider<AnotherBean> foo;
+
+    @Resource(name = "foo")
+    public Supplier<AnotherBean> memoizedFoo;
+
+    public Supplier<AnotherBean> bar;
+
+    @Resource(name = "xyz")
+    public void bar(Supplier<AnotherBean> bar) {
+      this.bar = bar;
+    }
+  }
+
   public static class MyBean {
     @Resource
     public AnotherBean foo;
@@ -0,0 +1,69 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/** @version $Revision: 1.1 $ */
+public class CompositeCloserTest extends TestCase {
+
+  public void testOnlyInvokesClosersForTheirTypes() throws Throwable {
+    StringCloser stringCloser = new StringCloser();
+    RecordingCloser anyCloser = new RecordingCloser();
+    CompositeCloser closer = new CompositeCloser(
+        ImmutableList.<Closer>of(stringCloser, anyCloser));
+
+    closer.close("a");
+    closer.close(1);
+    closer.close("b");
+
+    assertEquals("[a, b]", stringCloser.closed.toString());
+    assertEquals("[a, 1, b]", anyCloser.closed.toString());
+    assertEquals("type checks are cached", 2, stringCloser.typeChecks);
+    assertTrue(closer.isCloseable(Integer.class));
+  }
+
+  public void testSingleTypedCloserIsWrapped() throws Throwable {
+    Closer closer = CompositeCloser.newInstance(ImmutableList.<Closer>of(new StringCloser()));
+    assertTrue(closer instanceof CompositeCloser);
+    assertFalse(((TypedCloser) closer).isCloseable(Integer.class));
+  }
+
+  static class RecordingCloser implements Closer {
+    final List<Object> closed = Lists.newArrayList();
+
+    public void close(Object object) {
+      closed.add(object);
+    }
+  }
+
+  static class StringCloser extends RecordingCloser implements TypedCloser {
+    int typeChecks;
+
+    public boolean isCloseable(Class<?> type) {
+      typeChecks++;
+      return type == String.class;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.support;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.TypeListenerBinding;
+
+/** @version $Revision: 1.1 $ */
+public class GuiceyFruitModuleTest extends TestCase {
+
+  public void testSingleListenerForAllAnnotations() throws Exception {
+    int count = 0;
+    List<Element> elements = Elements.getElements(new MyModule());
+    for (Element element : elements) {
+      if (element instanceof TypeListenerBinding
+          && ((TypeListenerBinding) element).getListener() instanceof AnnotationMemberScanner) {
+        count++;
+      }
+    }
+    assertEquals("type listeners", 1, count);
+  }
+
+  public void testInjectsAllAnnotationsInHierarchy() throws Exception {
+    Injector injector = Guice.createInjector(new MyModule());
+    MyBean bean = injector.getInstance(MyBean.class);
+
+    assertEquals("red field", "red:redField", bean.redField);
+    assertEquals("blue field", "blue:blueField", bean.blueField);
+    assertEquals("inherited red method", "red:setBase", bean.base);
+    assertTrue("after injection hook", bean.initialised);
+  }
+
+  public void testResolvesEachMemberOnce() throws Exception {
+    MyModule module = new MyModule();
+    Injector injector = Guice.createInjector(module);
+    MyBean first = injector.getInstance(MyBean.class);
+    MyBean second = injector.getInstance(MyBean.class);
+
+    assertNotSame(first, second);
+    assertEquals("red field", "red:redField", second.redField);
+    assertEquals("inherited red method", "red:setBase", second.base);
+    assertEquals("red resolutions", 2, module.red.resolveCount);
+    assertEquals("blue resolutions", 1, module.blue.resolveCount);
+  }
+
+  public static class MyModule extends GuiceyFruitModule {
+    final NameProvider<Red> red = new NameProvider<Red>("red");
+    final NameProvider<Blue> blue = new NameProvider<Blue>("blue");
+
+    protected void configure() {
+      super.configure();
+
+      bindAnnotationInjector(Red.class, red);
+      bindAnnotationInjector(Blue.class, blue);
+      bindMethodHandler(Init.class, new MethodHandler() {
+        public void afterInjection(Object injectee, Annotation annotation, Method method)
+            throws InvocationTargetException, IllegalAccessException {
+          method.invoke(injectee);
+        }
+      });
+    }
+  }
+
+  static class NameProvider<A extends Annotation> extends AnnotationMemberProviderSupport<A> {
+    private final String prefix;
+    int resolveCount;
+
+    NameProvider(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    protected Provider<?> resolve(A annotation, Member member, TypeLiteral<?> requiredType,
+        Class<?> memberType, Annotation[] annotations) {
+      resolveCount++;
+      return super.resolve(annotation, member, requiredType, memberType, annotations);
+    }
+
+    protected Object provide(A annotation, Member member, TypeLiteral<?> requiredType,
+        Class<?> memberType, Annotation[] annotations) {
+      return prefix + ":" + member.getName();
+    }
+
+    public boolean isNullParameterAllowed(A annotation, Method method, Class<?> parameterType,
+        int parameterIndex) {
+      return false;
+    }
+  }
+
+  public static class BaseBean {
+    public String base;
+
+    @Red
+    public void setBase(String base) {
+      this.base = base;
+    }
+  }
+
+  public static class MyBean extends BaseBean {
+    @Red
+    public String redField;
+    @Blue
+    public String blueField;
+    public boolean initialised;
+
+    @Init
+    public void init() {
+      initialised = redField != null && blueField != null && base != null;
+    }
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.FIELD, ElementType.METHOD})
+  public @interface Red {
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.FIELD, ElementType.METHOD})
+  public @interface Blue {
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  public @interface Init {
+  }
+}
@@ -0,0 +1,195 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.util;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.testing.TestScoped;
+
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+
+/** @version $Revision: 1.1 $ */
+public class CloseableScopeTest extends TestCase {
+  private final CloseableScope scope = new CloseableScope(TestScoped.class);
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @Override
+  protected void tearDown() throws Exception {
+    executor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testSlowCreationDoesNotBlockOtherKeys() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CloseableScope.ScopedProvider<String> slow = scoped("slow", new Provider<String>() {
+      public String get() {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return "slow";
+      }
+    });
+    Future<String> slowValue = executor.submit(new Callable<String>() {
+      public String call() {
+        return slow.get();
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertEquals("fast", scoped("fast", constant("fast")).get());
+    assertNull("not created yet", slow.getCachedValue());
+
+    release.countDown();
+    assertEquals("slow", slowValue.get(5, TimeUnit.SECONDS));
+    assertEquals("slow", slow.getCachedValue());
+  }
+
+  public void testCreatesOncePerKey() throws Exception {
+    final AtomicInteger count = new AtomicInteger();
+    final CloseableScope.ScopedProvider<Integer> provider = scoped("count",
+        new Provider<Integer>() {
+          public Integer get() {
+            return count.incrementAndGet();
+          }
+        });
+    Callable<Integer> task = new Callable<Integer>() {
+      public Integer call() {
+        return provider.get();
+      }
+    };
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(1), executor.submit(task).get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, count.get());
+  }
+
+  public void testReentrantCreation() throws Exception {
+    final Provider<String>[] holder = new Provider[1];
+    holder[0] = scoped("reentrant", new Provider<String>() {
+      int depth;
+
+      public String get() {
+        return depth++ == 0 ? "outer:" + holder[0].get() : "inner";
+      }
+    });
+    assertEquals("outer:inner", holder[0].get());
+    assertEquals("outer:inner", holder[0].get());
+  }
+
+  public void testClosesOwnInstancesInReverseCreationOrder() throws Exception {
+    final List<Object> closed = Lists.newArrayList();
+    Injector injector = Guice.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(Closer.class).toInstance(new Closer() {
+          public void close(Object object) {
+            closed.add(object);
+          }
+        });
+      }
+    });
+    scoped("a", constant("a")).get();
+    scoped("b", constant("b")).get();
+    scoped("c", constant("c")).get();
+
+    scope.close(injector);
+
+    assertEquals("[c, b, a]", closed.toString());
+    assertNull("scope cleared", scoped("a", constant("a")).getCachedValue());
+  }
+
+  public void testClosesInstancesStillBeingCreated() throws Exception {
+    final List<Object> closed = Lists.newArrayList();
+    final Injector injector = Guice.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(Closer.class).toInstance(new Closer() {
+          public void close(Object object) {
+            closed.add(object);
+          }
+        });
+      }
+    });
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CloseableScope.ScopedProvider<String> slow = scoped("slow", new Provider<String>() {
+      public String get() {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return "slow";
+      }
+    });
+    Future<String> slowValue = executor.submit(new Callable<String>() {
+      public String call() {
+        return slow.get();
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    Future<?> closing = executor.submit(new Callable<Object>() {
+      public Object call() throws Exception {
+        scope.close(injector);
+        return null;
+      }
+    });
+    Thread.sleep(100);
+    assertFalse("Should wait for the object being created", closing.isDone());
+
+    release.countDown();
+    assertEquals("slow", slowValue.get(5, TimeUnit.SECONDS));
+    closing.get(5, TimeUnit.SECONDS);
+    assertEquals("[slow]", closed.toString());
+  }
+
+  protected <T> CloseableScope.ScopedProvider<T> scoped(String name, Provider<T> creator) {
+    return (CloseableScope.ScopedProvider<T>) scope.scope(Key.get(
+        (Class<T>) Object.class, Names.named(name)), creator);
+  }
+
+  protected static <T> Provider<T> constant(final T value) {
+    return new Provider<T>() {
+      public T get() {
+        return value;
+      }
+    };
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.jsr250.Jsr250Module;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.Scope;
+import com.google.inject.name.Names;
+
+/** @version $Revision: 1.1 $ */
+public class ConcurrentSingletonScopeTest extends TestCase {
+  static final StringBuffer closed = new StringBuffer();
+
+  public void testSingletonPerInjectorClosedOnInjectorClose() throws Exception {
+    Injector injector = Guice.createInjector(new Jsr250Module(), new ConcurrentSingletonModule(),
+        new ConcurrentSingletonModule());
+    Scope scope = injector.getScopeBindings().get(ConcurrentSingleton.class);
+    assertTrue("scope " + scope, scope instanceof ConcurrentSingletonScope);
+    assertEquals(ConcurrentSingleton.class, Injectors.getScopeAnnotation(
+        injector.getBinding(Outer.class)));
+
+    Outer outer = injector.getInstance(Outer.class);
+    assertSame(outer, injector.getInstance(Outer.class));
+    assertSame(outer.inner, injector.getInstance(Inner.class));
+
+    closed.setLength(0);
+    Injectors.close(injector);
+    assertEquals("outer,inner,", closed.toString());
+  }
+
+  public void testDetectsCrossThreadCycles() throws Exception {
+    final ConcurrentSingletonScope scope = new ConcurrentSingletonScope();
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    final Provider<String>[] providers = new Provider[2];
+    for (int i = 0; i < 2; i++) {
+      final int other = 1 - i;
+      providers[i] = scope.scope(Key.get(String.class, Names.named("p" + i)),
+          new Provider<String>() {
+            public String get() {
+              bothStarted.countDown();
+              try {
+                bothStarted.await();
+              }
+              catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+              return "value:" + providers[other].get();
+            }
+          });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?>[] futures = new Future[2];
+      for (int i = 0; i < 2; i++) {
+        final int index = i;
+        futures[i] = executor.submit(new Callable<String>() {
+          public String call() {
+            return providers[index].get();
+          }
+        });
+      }
+      int failures = 0;
+      for (Future<?> future : futures) {
+        try {
+          future.get(5, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+          assertTrue("cause " + e.getCause(), e.getCause() instanceof ProvisionException);
+          failures++;
+        }
+      }
+      assertTrue("at least one thread should detect the cycle", failures > 0);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @ConcurrentSingleton
+  public static class Inner {
+    @PreDestroy
+    public void close() {
+      closed.append("inner,");
+    }
+  }
+
+  @ConcurrentSingleton
+  public static class Outer {
+    @Inject
+    Inner inner;
+
+    @PreDestroy
+    public void close() {
+      closed.append("outer,");
+    }
+  }
+}
@@ -17,10 +17,14 @@
  */
 package org.guiceyfruit.ejb;
 
+import com.google.inject.TypeLiteral;
+import org.guiceyfruit.jsr250.JndiPrefetcher;
 import org.guiceyfruit.jsr250.Jsr250Module;
 import org.guiceyfruit.ejb.support.EJBMemberProvider;
+import org.guiceyfruit.support.InjectionPointListener;
 
 import javax.ejb.EJB;
+import java.lang.reflect.Member;
 
 /**
  * Allows objects to be injected using the {@link EJB} annotation
@@ -31,7 +35,13 @@ public class EjbModule  extends Jsr250Module {
   @Override
   protected void configure() {
     super.configure();
+    final JndiPrefetcher jndiPrefetcher = getJndiPrefetcher();
 
     bindAnnotationInjector(EJB.class, EJBMemberProvider.class);
+    bindInjectionPointListener(EJB.class, new InjectionPointListener<EJB>() {
+      public void hear(EJB annotation, TypeLiteral<?> type, Member member) {
+        jndiPrefetcher.addName(type, member, annotation.beanName());
+      }
+    });
   }
 }
@@ -17,6 +17,7 @@
  */
 package org.guiceyfruit.ejb.support;
 
+import com.google.inject.Provider;
 import com.google.inject.TypeLiteral;
 import org.guiceyfruit.jsr250.NamedProviderSupport;
 
@@ -37,4 +38,10 @@ public class EJBMemberProvider extends NamedProviderSupport<EJB> {
         String name = getValueName(annotation.beanName(), member);
         return provideObjectFromNamedBindingOrJndi(requiredType, name);
     }
+
+    @Override
+    protected Provider<?> resolve(EJB annotation, Member member, TypeLiteral<?> requiredType, Class<?> memberType, Annotation[] annotations) {
+        String name = getValueName(annotation.beanName(), member);
+        return resolveNamedBindingOrJndi(requiredType, name);
+    }
 }
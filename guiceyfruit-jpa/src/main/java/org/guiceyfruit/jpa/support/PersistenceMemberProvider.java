@@ -47,7 +47,17 @@ public class PersistenceMemberProvider extends AnnotationMemberProviderSupport<P
 
   protected Object provide(PersistenceContext annotation, Member member,
       TypeLiteral<?> requiredType, Class<?> memberType, Annotation[] annotations) {
+    return getEntityManagerProvider(annotation).get();
+  }
+
+  @Override
+  protected Provider<?> resolve(PersistenceContext annotation, Member member,
+      TypeLiteral<?> requiredType, Class<?> memberType, Annotation[] annotations) {
+    return getEntityManagerProvider(annotation);
+  }
 
+  /** Returns the provider of the named persistence context or the default one */
+  protected Provider<EntityManager> getEntityManagerProvider(PersistenceContext annotation) {
     Provider<EntityManager> provider = null;
 
     String name = annotation.name();
@@ -57,7 +67,7 @@ public class PersistenceMemberProvider extends AnnotationMemberProviderSupport<P
     if (provider == null) {
       provider = defaultEntityManager;
     }
-    return provider.get();
+    return provider;
   }
 
   public boolean isNullParameterAllowed(PersistenceContext annotation, Method method,
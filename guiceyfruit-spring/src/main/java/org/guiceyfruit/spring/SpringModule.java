@@ -18,25 +18,44 @@
 
 package org.guiceyfruit.spring;
 
+import java.lang.annotation.Annotation;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import org.guiceyfruit.jsr250.Jsr250Module;
+import org.guiceyfruit.spring.support.AutowiredConstructorProvider;
 import org.guiceyfruit.spring.support.AutowiredMemberProvider;
 import org.guiceyfruit.spring.support.DisposableBeanCloser;
+import org.guiceyfruit.spring.support.LifecycleCloser;
+import org.guiceyfruit.spring.support.LifecycleProcessor;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.inject.Binder;
+import com.google.inject.Binding;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.ProvisionException;
+import com.google.inject.Scope;
+import com.google.inject.ScopeAnnotation;
 import com.google.inject.TypeLiteral;
+import com.google.inject.binder.ScopedBindingBuilder;
 import com.google.inject.matcher.Matchers;
+import com.google.inject.spi.BindingScopingVisitor;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
 import com.google.inject.spi.InjectionListener;
+import com.google.inject.spi.LinkedKeyBinding;
 import com.google.inject.spi.TypeEncounter;
 import com.google.inject.spi.TypeListener;
+import com.google.inject.spi.UntargettedBinding;
 
 /**
  * A module for injecting beans using the Spring annotations
@@ -49,15 +68,132 @@ public class SpringModule extends Jsr250Module {
    * Returns a new Injector with support for
    * <a href="http://code.google.com/p/guiceyfruit/wiki/Annotations">Spring annotations and
    * lifecycle support</a> along with JSR 250 support included.
+   *
+   * Types bound in the modules which have an {@link Autowired} constructor are created using it.
+   * Singletons which are auto startup <code>SmartLifecycle</code> beans are started by the
+   * {@link LifecycleProcessor} of the injector and are stopped by the {@link LifecycleCloser} when
+   * the injector is closed using {@link org.guiceyfruit.Injectors#close(Injector)}. If any of them
+   * fails to start then those already started are stopped before the failure is thrown.
    */
   public static Injector createInjector(Module... modules) {
     Iterable<? extends Module> iterable = Iterables.concat(
         Collections.singletonList(new SpringModule()), Arrays.asList(modules));
 
-    return Guice.createInjector(iterable);
+    Injector injector = Guice.createInjector(withAutowiredConstructors(iterable));
+    injector.getInstance(LifecycleProcessor.class).startAutoStartup();
+    return injector;
+  }
+
+  /**
+   * Returns a module containing the bindings of the given modules where any binding of a type which
+   * has an {@link Autowired} constructor is replaced with a binding to an
+   * {@link AutowiredConstructorProvider} of the type in the same scope. Keys linked to such a type
+   * are kept linked to it, the type being bound to its {@link Autowired} constructor in the scope
+   * of its class if it is not bound explicitly, so that the keys share a single binding of the
+   * type. Other types which are only bound just in time by Guice cannot be rebound so they must be
+   * bound explicitly to use their {@link Autowired} constructors.
+   */
+  public static Module withAutowiredConstructors(Iterable<? extends Module> modules) {
+    final List<Element> elements = Elements.getElements(modules);
+    return new Module() {
+      public void configure(Binder binder) {
+        Set<Key<?>> boundKeys = Sets.newHashSet();
+        for (Element element : elements) {
+          if (element instanceof Binding) {
+            boundKeys.add(((Binding<?>) element).getKey());
+          }
+        }
+        for (Element element : elements) {
+          if (!(element instanceof Binding)
+              || !bindAutowiredConstructor(binder, (Binding<?>) element, boundKeys)) {
+            element.applyTo(binder);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Binds the key of the binding to the {@link Autowired} constructor of its type returning false
+   * if the binding is to be kept as is. If the binding links to a type which has an
+   * {@link Autowired} constructor and is not bound yet then the type is bound to its constructor.
+   */
+  private static <T> boolean bindAutowiredConstructor(Binder binder, Binding<T> binding,
+      Set<Key<?>> boundKeys) {
+    Key<?> key = binding.acceptTargetVisitor(new DefaultBindingTargetVisitor<T, Key<?>>() {
+      public Key<?> visit(UntargettedBinding<? extends T> untargettedBinding) {
+        return untargettedBinding.getKey();
+      }
+
+      public Key<?> visit(LinkedKeyBinding<? extends T> linkedKeyBinding) {
+        Key<?> linkedKey = linkedKeyBinding.getLinkedKey();
+        return linkedKey.getAnnotationType() == null ? linkedKey : null;
+      }
+    });
+    if (key == null) {
+      return false;
+    }
+    final Class<?> type = key.getTypeLiteral().getRawType();
+    if (!AutowiredConstructorProvider.hasAutowiredConstructor(type)) {
+      return false;
+    }
+
+    if (!key.equals(binding.getKey())) {
+      // keep the link so that all the keys linked to the type share its binding
+      if (boundKeys.add(key)) {
+        bindScopeAnnotation(bindToAutowiredConstructor(binder, binding.getSource(), key), type);
+      }
+      return false;
+    }
+
+    final ScopedBindingBuilder builder
+        = bindToAutowiredConstructor(binder, binding.getSource(), binding.getKey());
+    binding.acceptScopingVisitor(new BindingScopingVisitor<Void>() {
+      public Void visitEagerSingleton() {
+        builder.asEagerSingleton();
+        return null;
+      }
+
+      public Void visitScope(Scope scope) {
+        builder.in(scope);
+        return null;
+      }
+
+      public Void visitScopeAnnotation(Class<? extends Annotation> scopeAnnotation) {
+        builder.in(scopeAnnotation);
+        return null;
+      }
+
+      public Void visitNoScoping() {
+        bindScopeAnnotation(builder, type);
+        return null;
+      }
+    });
+    return true;
+  }
+
+  /** Binds the key to an {@link AutowiredConstructorProvider} of its type */
+  private static <T> ScopedBindingBuilder bindToAutowiredConstructor(Binder binder,
+      Object source, Key<T> key) {
+    return binder.withSource(source).bind(key)
+        .toProvider(new AutowiredConstructorProvider<T>(key.getTypeLiteral()));
+  }
+
+  /** Scopes the binding with the scope annotation of the type as Guice would have done */
+  private static void bindScopeAnnotation(ScopedBindingBuilder builder, Class<?> type) {
+    for (Annotation annotation : type.getAnnotations()) {
+      Class<? extends Annotation> annotationType = annotation.annotationType();
+      if (annotationType.isAnnotationPresent(ScopeAnnotation.class)
+          || annotationType.isAnnotationPresent(javax.inject.Scope.class)) {
+        builder.in(annotationType);
+        break;
+      }
+    }
   }
 
   protected void configure() {
+    // bound before the other closers so that lifecycle beans are stopped before they are destroyed
+    bind(LifecycleCloser.class);
     super.configure();
 
     bindAnnotationInjector(Autowired.class, AutowiredMemberProvider.class);
@@ -85,6 +221,7 @@ public class SpringModule extends Jsr250Module {
     });
 
     bind(DisposableBeanCloser.class);
+    bind(LifecycleProcessor.class);
   }
 
 }
@@ -0,0 +1,197 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.guiceyfruit.support.Reflectors;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.TypeLiteral;
+
+/**
+ * Creates objects using their {@link Autowired} constructor, resolving the constructor parameters
+ * with the same qualifier and collection semantics as {@link AutowiredMemberProvider}, then
+ * injects their members.
+ *
+ * If a type has a required autowired constructor then it is used, otherwise the optional autowired
+ * constructor with the most parameters which can all be satisfied is used, falling back to the
+ * default constructor. Objects created by this provider are not intercepted by Guice AOP.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class AutowiredConstructorProvider<T> implements Provider<T> {
+  private static final Comparator<Constructor<?>> MOST_PARAMETERS_FIRST
+      = new Comparator<Constructor<?>>() {
+        public int compare(Constructor<?> c1, Constructor<?> c2) {
+          return c2.getParameterTypes().length - c1.getParameterTypes().length;
+        }
+      };
+
+  private final TypeLiteral<T> type;
+  private final List<Constructor<?>> constructors;
+  private Injector injector;
+  private AutowiredMemberProvider memberProvider;
+  private volatile Constructor<?> constructor;
+  private volatile Provider<?>[] parameterProviders;
+
+  public AutowiredConstructorProvider(TypeLiteral<T> type) {
+    Preconditions.checkNotNull(type, "type");
+    this.type = type;
+    this.constructors = getCandidateConstructors(type.getRawType());
+    if (constructors.isEmpty()) {
+      throw new ProvisionException("No @Autowired or default constructor on " + type);
+    }
+  }
+
+  public AutowiredConstructorProvider(Class<T> type) {
+    this(TypeLiteral.get(type));
+  }
+
+  /** Returns true if the type has a constructor annotated with {@link Autowired} */
+  public static boolean hasAutowiredConstructor(Class<?> type) {
+    for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+      if (constructor.getAnnotation(Autowired.class) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the constructors which can be used to create the type in the order in which they should
+   * be tried
+   */
+  protected static List<Constructor<?>> getCandidateConstructors(Class<?> type) {
+    Constructor<?> required = null;
+    Constructor<?> defaultConstructor = null;
+    List<Constructor<?>> answer = Lists.newArrayList();
+    for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+      Autowired autowired = constructor.getAnnotation(Autowired.class);
+      if (autowired == null) {
+        if (constructor.getParameterTypes().length == 0) {
+          defaultConstructor = constructor;
+        }
+      }
+      else if (autowired.required()) {
+        if (required != null) {
+          throw new ProvisionException("Too many required @Autowired constructors on "
+              + type.getName() + ": " + required + " and " + constructor);
+        }
+        required = constructor;
+      }
+      else {
+        answer.add(constructor);
+      }
+    }
+    if (required != null) {
+      if (!answer.isEmpty()) {
+        throw new ProvisionException("Cannot use optional @Autowired constructors " + answer
+            + " as " + type.getName() + " has the required @Autowired constructor " + required);
+      }
+      return Collections.<Constructor<?>>singletonList(Reflectors.makeAccessible(required));
+    }
+    Collections.sort(answer, MOST_PARAMETERS_FIRST);
+    if (defaultConstructor != null) {
+      answer.add(defaultConstructor);
+    }
+    for (Constructor<?> constructor : answer) {
+      Reflectors.makeAccessible(constructor);
+    }
+    return answer;
+  }
+
+  @Inject
+  public void setInjector(Injector injector) {
+    this.injector = injector;
+  }
+
+  @Inject
+  public void setMemberProvider(AutowiredMemberProvider memberProvider) {
+    this.memberProvider = memberProvider;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get() {
+    Provider<?>[] providers = parameterProviders;
+    if (providers == null) {
+      providers = resolve();
+    }
+    Object[] values = new Object[providers.length];
+    for (int i = 0; i < providers.length; i++) {
+      values[i] = providers[i].get();
+    }
+
+    T answer;
+    try {
+      answer = (T) constructor.newInstance(values);
+    }
+    catch (InstantiationException e) {
+      throw new ProvisionException("Failed to instantiate " + constructor + ". Reason: " + e, e);
+    }
+    catch (IllegalAccessException e) {
+      throw new ProvisionException("Failed to instantiate " + constructor + ". Reason: " + e, e);
+    }
+    catch (InvocationTargetException ie) {
+      Throwable e = ie.getTargetException();
+      throw new ProvisionException("Failed to instantiate " + constructor + ". Reason: " + e, e);
+    }
+    injector.injectMembers(answer);
+    return answer;
+  }
+
+  /**
+   * Chooses the constructor to use and resolves the providers of its parameters once, as the
+   * bindings of the injector do not change once it is created
+   */
+  protected synchronized Provider<?>[] resolve() {
+    if (parameterProviders != null) {
+      return parameterProviders;
+    }
+    Preconditions.checkState(injector != null && memberProvider != null,
+        "The provider has not been injected");
+    for (Constructor<?> candidate : constructors) {
+      Autowired autowired = candidate.getAnnotation(Autowired.class);
+      Provider<?>[] providers = autowired != null
+          ? memberProvider.resolveParameters(autowired, type, candidate) : new Provider<?>[0];
+      if (providers != null) {
+        constructor = candidate;
+        parameterProviders = providers;
+        return providers;
+      }
+    }
+    throw new ProvisionException("Could not satisfy any of the @Autowired constructors of "
+        + type + ": " + constructors);
+  }
+
+  @Override
+  public String toString() {
+    return "AutowiredConstructorProvider(" + type + ")";
+  }
+}
@@ -40,6 +40,8 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.guiceyfruit.Injectors;
 import org.guiceyfruit.spring.NoAutowire;
@@ -50,18 +52,30 @@ import org.guiceyfruit.support.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.inject.Binding;
 import com.google.inject.BindingAnnotation;
+import com.google.inject.ConfigurationException;
+import com.google.inject.ImplementedBy;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.ProvidedBy;
+import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
 import com.google.inject.TypeLiteral;
+import com.google.inject.multibindings.MapBinderBinding;
+import com.google.inject.multibindings.MultibinderBinding;
+import com.google.inject.multibindings.MultibindingsTargetVisitor;
 import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.util.Types;
 
 /**
  * Creates a value for an {@link Autowired} member with an optional {@link Qualifier} annotation
@@ -70,7 +84,11 @@ import com.google.inject.name.Named;
  */
 public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Autowired> {
 
+  private static final MultibindingVisitor MULTIBINDING_VISITOR = new MultibindingVisitor();
+
   private final Injector injector;
+  private final ConcurrentMap<CandidateKey, List<Binding<?>>> candidates
+      = new ConcurrentHashMap<CandidateKey, List<Binding<?>>>();
 
   @Inject
   public AutowiredMemberProvider(Injector injector) {
@@ -86,24 +104,78 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
   protected Object provide(Autowired annotation, Member member, TypeLiteral<?> typeLiteral,
       Class<?> memberType, Annotation[] annotations) {
     Predicate<Binding> filter = createQualifierFilter(member, annotations);
+    return provide(annotation, member, typeLiteral, memberType, filter);
+  }
+
+  /**
+   * Resolves the bindings to autowire into the member once so that only the providers of the
+   * matching bindings are invoked on each injection
+   */
+  @Override
+  protected Provider<?> resolve(Autowired annotation, Member member, TypeLiteral<?> typeLiteral,
+      Class<?> memberType, Annotation[] annotations) {
+    Predicate<Binding> filter = createQualifierFilter(member, annotations);
+    return resolve(annotation, member, typeLiteral, memberType, filter);
+  }
 
+  protected Object provide(Autowired annotation, Member member, TypeLiteral<?> typeLiteral,
+      Class<?> memberType, Predicate<Binding> filter) {
+    return resolve(annotation, member, typeLiteral, memberType, filter).get();
+  }
+
+  protected Provider<?> resolve(Autowired annotation, Member member, TypeLiteral<?> typeLiteral,
+      Class<?> memberType, Predicate<Binding> filter) {
     Class<?> type = typeLiteral.getRawType();
     if (type.isArray()) {
-      return provideArrayValue(member, typeLiteral, memberType, filter);
+      return resolveArrayValue(member, typeLiteral, memberType, filter);
     }
     else if (Collection.class.isAssignableFrom(type)) {
-      Collection collection = createCollection(type);
-      return provideCollectionValues(collection, member, typeLiteral, filter);
+      return resolveCollectionValues(member, typeLiteral, filter);
     }
     else if (Map.class.isAssignableFrom(type)) {
-      Map map = createMap(type);
-      return provideMapValues(map, member, typeLiteral, filter);
+      return resolveMapValues(member, typeLiteral, filter);
     }
     else {
-      return provideSingleValue(member, type, annotation, filter);
+      Binding<?> binding = resolveSingleBinding(member, type, annotation, filter);
+      if (binding == null) {
+        return new NullProvider(filter, member);
+      }
+      final Provider<?> provider = binding.getProvider();
+      return new MemberProvider(filter, member) {
+        public Object get() {
+          return provider.get();
+        }
+      };
     }
   }
 
+  /**
+   * Resolves the providers of the parameters of an {@link Autowired} constructor of the given type.
+   * If the constructor is not required then null is returned if any of its parameters cannot be
+   * satisfied.
+   */
+  public Provider<?>[] resolveParameters(Autowired annotation, TypeLiteral<?> type,
+      Constructor<?> constructor) {
+    List<TypeLiteral<?>> parameterTypes = type.getParameterTypes(constructor);
+    Class<?>[] memberTypes = constructor.getParameterTypes();
+    Annotation[][] parameterAnnotations = constructor.getParameterAnnotations();
+    Provider<?>[] answer = new Provider<?>[memberTypes.length];
+    for (int i = 0; i < memberTypes.length; i++) {
+      Predicate<Binding> filter = createQualifierFilter(constructor, parameterAnnotations[i]);
+      Provider<?> provider = resolve(annotation, constructor, parameterTypes.get(i),
+          memberTypes[i], filter);
+      if (provider instanceof NullProvider) {
+        if (!annotation.required()) {
+          return null;
+        }
+        throw new ProvisionException("Could not find required binding for " + filter
+            + " for parameter " + i + " when injecting " + constructor);
+      }
+      answer[i] = provider;
+    }
+    return answer;
+  }
+
   /**
    * Returns a new filter on the given member to respect the use of {@link Qualifier} annotations or
    * annotations annotated with {@link Qualifier}
@@ -113,30 +185,9 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
 
     if (member instanceof AnnotatedElement) {
       AnnotatedElement annotatedElement = (AnnotatedElement) member;
-      final Qualifier qualifier = annotatedElement.getAnnotation(Qualifier.class);
+      Qualifier qualifier = annotatedElement.getAnnotation(Qualifier.class);
       if (qualifier != null) {
-        final String expectedValue = qualifier.value();
-        final boolean notEmptyValue = Strings.isNotEmpty(expectedValue);
-        return new Predicate<Binding>() {
-          public boolean matches(Binding binding) {
-            String value = annotationName(binding);
-
-            // we cannot use @Qualified as a binding annotation
-            // so we can't test for just a @Qualified binding with no text
-            // so lets just test for a non-empty string
-            if (notEmptyValue) {
-              return Comparators.equal(expectedValue, value);
-            }
-            else {
-              return Strings.isNotEmpty(value);
-            }
-          }
-
-          @Override
-          public String toString() {
-            return "@Autowired @Qualifier(" + expectedValue + ")";
-          }
-        };
+        return new QualifierFilter(qualifier);
       }
 
       // lets iterate through all of the annotations looking for a qualifier
@@ -156,33 +207,13 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
       }
       int size = qualifiedAnnotations.size();
       if (size == 1) {
-        final Annotation annotation = Iterables.getOnlyElement(qualifiedAnnotations);
-        return new Predicate<Binding>() {
-          public boolean matches(Binding binding) {
-            Annotation actualAnnotation = binding.getKey().getAnnotation();
-            return actualAnnotation != null && actualAnnotation.equals(annotation);
-          }
-
-          @Override
-          public String toString() {
-            return "@Autowired " + annotation;
-          }
-        };
+        return new QualifierFilter(Iterables.getOnlyElement(qualifiedAnnotations));
       }
       else if (size > 0) {
         throw new ProvisionException("Too many qualified annotations " + qualifiedAnnotations + " when trying to inject " + member);
       }
     }
-    return new Predicate<Binding>() {
-      public boolean matches(Binding binding) {
-        return true;
-      }
-
-      @Override
-      public String toString() {
-        return "@Autowired";
-      }
-    };
+    return new QualifierFilter(null);
   }
 
   /** Returns true if the annotation is a qualified annotation and a valid Guice binding annotation */
@@ -201,46 +232,76 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
 
   protected Object provideSingleValue(Member member, Class<?> type, Autowired annotation,
       Predicate<Binding> filter) {
-    Set<Binding<?>> set = getSortedBindings(type, filter);
-    int size = set.size();
+    Binding<?> binding = resolveSingleBinding(member, type, annotation, filter);
+    return binding != null ? binding.getProvider().get() : null;
+  }
+
+  /**
+   * Returns the single binding to autowire into the member or null if there is no matching binding
+   * and the member is not required
+   */
+  protected Binding<?> resolveSingleBinding(Member member, Class<?> type, Autowired annotation,
+      Predicate<Binding> filter) {
+    List<Binding<?>> list = getCandidateBindings(type, filter);
+    int size = list.size();
     if (size == 1) {
-      Binding<?> binding = Iterables.getOnlyElement(set);
-      return binding.getProvider().get();
+      return list.get(0);
     }
-    else if (size == 0) {
-      // should we at least try and create one
-      try {
-        Binding<?> binding = injector.getBinding(type);
-        if (filter.matches(binding)) {
-          return binding.getProvider().get();
-        }
-        else {
-          if (annotation.required()) {
-            throw new ProvisionException(
-                "Could not find required binding for " + filter + " when injecting " + member);
-          }
-          return null;
-        }
-      }
-      catch (Exception e) {
-        // TODO should we log the warning that we can't resolve this?
-        if (annotation.required()) {
-          if (e instanceof ProvisionException) {
-            throw (ProvisionException) e;
-          }
-          throw new ProvisionException(
-              "Could not resolve type " + type.getCanonicalName() + " with filter " + filter
-                  + " when injecting " + member + ": " + e, e);
-        }
-        return null;
-      }
-      //throw new ProvisionException("No binding could be found for " + type.getCanonicalName());
-    }
-    else {
+    else if (size > 1) {
       throw new ProvisionException(
           "Too many bindings " + size + " found for " + type.getCanonicalName() + " with keys "
-              + keys(set) + " when injecting " + member);
+              + keys(list) + " when injecting " + member);
+    }
+
+    // should we at least try and create one
+    Binding<?> binding = getJustInTimeBinding(member, type, annotation, filter);
+    if (binding != null && filter.matches(binding)) {
+      return binding;
     }
+    if (annotation.required()) {
+      throw new ProvisionException(
+          "Could not find required binding for " + filter + " when injecting " + member);
+    }
+    // TODO should we log the warning that we can't resolve this?
+    return null;
+  }
+
+  /**
+   * Returns the binding Guice would create for the type if it has no explicit bindings, or null if
+   * it cannot create one. Types which Guice cannot bind just in time, such as interfaces without an
+   * {@link ImplementedBy} or {@link ProvidedBy} annotation, are not bound for optional members
+   * to avoid the cost of a failed binding.
+   */
+  protected Binding<?> getJustInTimeBinding(Member member, Class<?> type, Autowired annotation,
+      Predicate<Binding> filter) {
+    Key<?> key = Key.get(type);
+    Binding<?> binding = injector.getExistingBinding(key);
+    if (binding != null || (!annotation.required() && !isJustInTimeBindable(type))) {
+      return binding;
+    }
+    try {
+      return injector.getBinding(key);
+    }
+    catch (ConfigurationException e) {
+      if (annotation.required()) {
+        throw new ProvisionException(
+            "Could not resolve type " + type.getCanonicalName() + " with filter " + filter
+                + " when injecting " + member + ": " + e, e);
+      }
+      return null;
+    }
+  }
+
+  /** Returns true if Guice may be able to create a binding for the type just in time */
+  protected boolean isJustInTimeBindable(Class<?> type) {
+    if (type.isArray()) {
+      return false;
+    }
+    if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+      return type.isAnnotationPresent(ImplementedBy.class)
+          || type.isAnnotationPresent(ProvidedBy.class);
+    }
+    return true;
   }
 
   /** Returns the keys used in the given bindings */
@@ -252,137 +313,300 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return answer;
   }
 
-  protected Object provideArrayValue(Member member, TypeLiteral<?> type, Class<?> memberType,
-      Predicate<Binding> filter) {
-    Class<?> componentType = memberType.getComponentType();
-    Set<Binding<?>> set = getSortedBindings(componentType, filter);
+  protected Provider<?> resolveArrayValue(Member member, TypeLiteral<?> type,
+      Class<?> memberType, Predicate<Binding> filter) {
+    final Class<?> componentType = memberType.getComponentType();
+    final Provider<? extends Collection<?>> elements = resolveElements(componentType, filter);
     // TODO should we return an empty array when no matches?
     // FWIW Spring seems to return null
-    if (set.isEmpty()) {
-      return null;
-    }
-    Object array = Array.newInstance(componentType, set.size());
-    int index = 0;
-    for (Binding<?> binding : set) {
-      Object value = binding.getProvider().get();
-      Array.set(array, index++, value);
+    if (elements == null) {
+      return new NullProvider(filter, member);
     }
-    return array;
+    return new MemberProvider(filter, member) {
+      public Object get() {
+        Collection<?> values = elements.get();
+        if (values.isEmpty()) {
+          return null;
+        }
+        Object array = Array.newInstance(componentType, values.size());
+        if (!componentType.isPrimitive()) {
+          return values.toArray((Object[]) array);
+        }
+        int index = 0;
+        for (Object value : values) {
+          Array.set(array, index++, value);
+        }
+        return array;
+      }
+    };
   }
 
-  private Collection provideCollectionValues(Collection collection, Member member,
-      TypeLiteral<?> type, Predicate<Binding> filter) {
-    Type typeInstance = type.getType();
-    if (typeInstance instanceof ParameterizedType) {
-      ParameterizedType parameterizedType = (ParameterizedType) typeInstance;
-      Type[] arguments = parameterizedType.getActualTypeArguments();
-      if (arguments.length == 1) {
-        Type argument = arguments[0];
-        if (argument instanceof Class) {
-          Class<?> componentType = (Class<?>) argument;
-          if (componentType != Object.class) {
-            Set<Binding<?>> set = getSortedBindings(componentType, filter);
-            if (set.isEmpty()) {
+  protected Provider<?> resolveCollectionValues(Member member, TypeLiteral<?> type,
+      Predicate<Binding> filter) {
+    Class<?> componentType = getTypeArgument(type, 1, 0);
+    if (componentType != null && componentType != Object.class) {
+      final Provider<? extends Collection<?>> elements = resolveElements(componentType, filter);
+      if (elements != null) {
+        Class<?> collectionType = type.getRawType();
+        if (elements instanceof MultibindingProvider
+            && (collectionType == Set.class || collectionType == Collection.class)) {
+          // the set of a Multibinder is immutable so it can be injected as is
+          return new MemberProvider(filter, member) {
+            public Object get() {
+              Collection<?> values = elements.get();
+              return values.isEmpty() ? null : values;
+            }
+          };
+        }
+        final Provider<? extends Collection<Object>> factory
+            = createCollectionFactory(collectionType);
+        return new MemberProvider(filter, member) {
+          public Object get() {
+            Collection<?> values = elements.get();
+            if (values.isEmpty()) {
               // TODO return null or empty collection if nothing to inject?
               return null;
             }
-            for (Binding<?> binding : set) {
-              Object value = binding.getProvider().get();
-              collection.add(value);
-            }
+            Collection<Object> collection = factory.get();
+            collection.addAll(values);
             return collection;
           }
-        }
+        };
       }
     }
     // TODO return null or empty collection if nothing to inject?
-    return null;
+    return new NullProvider(filter, member);
   }
 
-  protected Map provideMapValues(Map map, Member member, TypeLiteral<?> type,
+  protected Provider<?> resolveMapValues(Member member, TypeLiteral<?> type,
       Predicate<Binding> filter) {
-    Type typeInstance = type.getType();
-    if (typeInstance instanceof ParameterizedType) {
-      ParameterizedType parameterizedType = (ParameterizedType) typeInstance;
-      Type[] arguments = parameterizedType.getActualTypeArguments();
-      if (arguments.length == 2) {
-        Type key = arguments[0];
-        if (key instanceof Class) {
-          Class<?> keyType = (Class<?>) key;
-          if (keyType != Object.class && keyType != String.class) {
-            throw new ProvisionException(
-                "Cannot inject Map instances with a key type of " + keyType.getName() + " for "
-                    + member);
-          }
-          Type valueType = arguments[1];
-          if (valueType instanceof Class) {
-            Class<?> componentType = (Class<?>) valueType;
-            if (componentType != Object.class) {
-              Set<Binding<?>> set = getSortedBindings(componentType, filter);
-              if (set.isEmpty()) {
-                // TODO return null or empty collection if nothing to inject?
+    Class<?> keyType = getTypeArgument(type, 2, 0);
+    if (keyType != null) {
+      if (keyType != Object.class && keyType != String.class) {
+        throw new ProvisionException(
+            "Cannot inject Map instances with a key type of " + keyType.getName() + " for "
+                + member);
+      }
+      Class<?> componentType = getTypeArgument(type, 2, 1);
+      if (componentType != null && componentType != Object.class) {
+        Class<?> mapType = type.getRawType();
+        final Provider<? extends Map<Object, Object>> factory = createMapFactory(mapType);
+
+        final Provider<? extends Map<?, ?>> mapBinding
+            = getMapBinding(keyType, componentType, filter);
+        if (mapBinding != null) {
+          final boolean immutable = mapType == Map.class;
+          return new MemberProvider(filter, member) {
+            public Object get() {
+              Map<?, ?> values = mapBinding.get();
+              if (values.isEmpty()) {
                 return null;
               }
-              for (Binding<?> binding : set) {
-                Object keyValue = binding.getKey().toString();
-                Object value = binding.getProvider().get();
-                map.put(keyValue, value);
+              if (immutable) {
+                // the map of a MapBinder is immutable so it can be injected as is
+                return values;
               }
+              Map<Object, Object> map = factory.get();
+              map.putAll(values);
               return map;
             }
+          };
+        }
+
+        List<Binding<?>> set = getCandidateBindings(componentType, filter);
+        if (!set.isEmpty()) {
+          final int size = set.size();
+          final String[] keys = new String[size];
+          final Provider<?>[] providers = new Provider<?>[size];
+          for (int i = 0; i < size; i++) {
+            Binding<?> binding = set.get(i);
+            keys[i] = binding.getKey().toString();
+            providers[i] = binding.getProvider();
           }
+          return new MemberProvider(filter, member) {
+            public Object get() {
+              Map<Object, Object> map = factory.get();
+              for (int i = 0; i < size; i++) {
+                map.put(keys[i], providers[i].get());
+              }
+              return map;
+            }
+          };
         }
       }
     }
     // TODO return null or empty collection if nothing to inject?
+    return new NullProvider(filter, member);
+  }
+
+  /**
+   * Returns the provider of the elements of the given type which match the filter or null if there
+   * are none. If the elements are contributed using a
+   * {@link com.google.inject.multibindings.Multibinder} then its set is used, otherwise the
+   * providers of the matching bindings are invoked in order.
+   */
+  protected Provider<? extends Collection<?>> resolveElements(Class<?> componentType,
+      Predicate<Binding> filter) {
+    Key<?> setKey = getMultibindingKey(Types.setOf(componentType), filter);
+    if (setKey != null) {
+      Binding<?> binding = injector.getExistingBinding(setKey);
+      if (binding != null && isMultibinding(binding)) {
+        Provider<? extends Collection<?>> provider = castProvider(binding.getProvider());
+        return new MultibindingProvider(provider);
+      }
+    }
+
+    List<Binding<?>> set = getCandidateBindings(componentType, filter);
+    if (set.isEmpty()) {
+      return null;
+    }
+    final int size = set.size();
+    final Provider<?>[] providers = new Provider<?>[size];
+    for (int i = 0; i < size; i++) {
+      providers[i] = set.get(i).getProvider();
+    }
+    return new Provider<Collection<?>>() {
+      public Collection<?> get() {
+        List<Object> answer = new ArrayList<Object>(size);
+        for (Provider<?> provider : providers) {
+          answer.add(provider.get());
+        }
+        return answer;
+      }
+    };
+  }
+
+  /**
+   * Returns the provider of the map of a {@link com.google.inject.multibindings.MapBinder} of the
+   * given key and value types which matches the filter or null if there is no such map binder
+   */
+  protected Provider<? extends Map<?, ?>> getMapBinding(Class<?> keyType, Class<?> valueType,
+      Predicate<Binding> filter) {
+    Key<?> mapKey = getMultibindingKey(Types.mapOf(keyType, valueType), filter);
+    if (mapKey != null) {
+      Binding<?> binding = injector.getExistingBinding(mapKey);
+      if (binding != null && isMultibinding(binding)) {
+        Provider<? extends Map<?, ?>> provider = castProvider(binding.getProvider());
+        return provider;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the key a multibinder of the given type would be bound to for the qualifier of the
+   * filter or null if the qualifier cannot be used as a binding annotation
+   */
+  protected Key<?> getMultibindingKey(Type type, Predicate<Binding> filter) {
+    if (!(filter instanceof QualifierFilter)) {
+      return null;
+    }
+    Annotation qualifier = ((QualifierFilter) filter).getQualifier();
+    if (qualifier == null) {
+      return Key.get(type);
+    }
+    if (qualifier instanceof Qualifier) {
+      String value = ((Qualifier) qualifier).value();
+      return Strings.isNotEmpty(value) ? Key.get(type, Names.named(value)) : null;
+    }
+    return Key.get(type, qualifier);
+  }
+
+  /**
+   * Returns the provider as a provider of the type it is known to provide such as the set of a
+   * Multibinder, the map of a MapBinder or the instances of a collection or map class
+   */
+  @SuppressWarnings("unchecked")
+  protected static <T> Provider<T> castProvider(Provider<?> provider) {
+    return (Provider<T>) provider;
+  }
+
+  /** Returns true if the binding is the set of a Multibinder or the map of a MapBinder */
+  protected static boolean isMultibinding(Binding<?> binding) {
+    return Boolean.TRUE.equals(binding.acceptTargetVisitor(MULTIBINDING_VISITOR));
+  }
+
+  /**
+   * Returns the class of the type argument at the given index if the type has the expected number
+   * of type arguments which are classes, otherwise null
+   */
+  private static Class<?> getTypeArgument(TypeLiteral<?> type, int count, int index) {
+    Type typeInstance = type.getType();
+    if (typeInstance instanceof ParameterizedType) {
+      ParameterizedType parameterizedType = (ParameterizedType) typeInstance;
+      Type[] arguments = parameterizedType.getActualTypeArguments();
+      if (arguments.length == count && arguments[index] instanceof Class) {
+        return (Class<?>) arguments[index];
+      }
+    }
     return null;
   }
 
-  protected Map createMap(Class<?> type) {
-    Object answer = tryCreateInstance(type);
-    if (answer instanceof Map) {
-      return (Map) answer;
+  protected Provider<? extends Map<Object, Object>> createMapFactory(Class<?> type) {
+    Provider<Map> answer = createInstanceFactory(type, Map.class);
+    if (answer != null) {
+      return castProvider(answer);
     }
     else if (SortedMap.class.isAssignableFrom(type)) {
-      return new TreeMap();
+      return new Provider<Map<Object, Object>>() {
+        public Map<Object, Object> get() {
+          return new TreeMap<Object, Object>();
+        }
+      };
     }
-    return new HashMap();
+    return new Provider<Map<Object, Object>>() {
+      public Map<Object, Object> get() {
+        return new HashMap<Object, Object>();
+      }
+    };
   }
 
-  protected Collection createCollection(Class<?> type) {
-    Object answer = tryCreateInstance(type);
-    if (answer instanceof Collection) {
-      return (Collection) answer;
+  protected Provider<? extends Collection<Object>> createCollectionFactory(Class<?> type) {
+    Provider<Collection> answer = createInstanceFactory(type, Collection.class);
+    if (answer != null) {
+      return castProvider(answer);
     }
     else if (SortedSet.class.isAssignableFrom(type)) {
-      return new TreeSet();
+      return new Provider<Collection<Object>>() {
+        public Collection<Object> get() {
+          return new TreeSet<Object>();
+        }
+      };
     }
     else if (Set.class.isAssignableFrom(type)) {
-      return new HashSet();
+      return new Provider<Collection<Object>>() {
+        public Collection<Object> get() {
+          return new HashSet<Object>();
+        }
+      };
     }
-    return new ArrayList();
+    return new Provider<Collection<Object>>() {
+      public Collection<Object> get() {
+        return new ArrayList<Object>();
+      }
+    };
   }
 
   /**
-   * Returns a new instance of the given class if its a public non abstract class which has a public
-   * zero argument constructor otherwise returns null
+   * Returns a factory of new instances of the given class if its a public non abstract class which
+   * has a public zero argument constructor otherwise returns null
    */
-  protected Object tryCreateInstance(Class<?> type) {
-    Object answer = null;
+  protected <T> Provider<T> createInstanceFactory(Class<?> type, final Class<T> expectedType) {
     int modifiers = type.getModifiers();
-    if (!Modifier.isAbstract(modifiers) && Modifier.isPublic(modifiers) && !type.isInterface()) {
+    if (!Modifier.isAbstract(modifiers) && Modifier.isPublic(modifiers) && !type.isInterface()
+        && expectedType.isAssignableFrom(type)) {
       // if its a concrete class with no args make one
-      Constructor<?> constructor = null;
+      final Constructor<?> constructor;
       try {
         constructor = type.getConstructor();
       }
       catch (NoSuchMethodException e) {
-        // ignore
+        return null;
       }
-      if (constructor != null) {
-        if (Modifier.isPublic(constructor.getModifiers())) {
+      return new Provider<T>() {
+        public T get() {
           try {
-            answer = constructor.newInstance();
+            return expectedType.cast(constructor.newInstance());
           }
           catch (InstantiationException e) {
             throw new ProvisionException("Failed to instantiate " + constructor, e);
@@ -395,6 +619,23 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
             throw new ProvisionException("Failed to instantiate " + constructor, e);
           }
         }
+      };
+    }
+    return null;
+  }
+
+  /**
+   * Returns the sorted bindings of the type which match the filter. The bindings are found once for
+   * each type and filter as the bindings of the injector do not change once it is created.
+   */
+  protected List<Binding<?>> getCandidateBindings(Class<?> type, Predicate<Binding> filter) {
+    CandidateKey key = new CandidateKey(type, filter);
+    List<Binding<?>> answer = candidates.get(key);
+    if (answer == null) {
+      answer = ImmutableList.copyOf(getSortedBindings(type, filter));
+      List<Binding<?>> existing = candidates.putIfAbsent(key, answer);
+      if (existing != null) {
+        answer = existing;
       }
     }
     return answer;
@@ -450,7 +691,7 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return true;
   }
 
-  private String annotationName(Binding<?> binding) {
+  private static String annotationName(Binding<?> binding) {
     Annotation annotation = binding.getKey().getAnnotation();
     if (annotation instanceof Named) {
       Named named = (Named) annotation;
@@ -467,4 +708,142 @@ public class AutowiredMemberProvider extends AnnotationMemberProviderSupport<Aut
     return bindings.getKey().getTypeLiteral().getRawType().getName();
   }
 
+  /**
+   * Matches the bindings which satisfy the {@link Qualifier} annotation or qualified annotation of
+   * a member, or all bindings if the member is not qualified
+   */
+  protected static class QualifierFilter implements Predicate<Binding> {
+    private final Annotation qualifier;
+
+    public QualifierFilter(Annotation qualifier) {
+      this.qualifier = qualifier;
+    }
+
+    /** Returns the qualifier annotation or null if the member is not qualified */
+    public Annotation getQualifier() {
+      return qualifier;
+    }
+
+    public boolean matches(Binding binding) {
+      if (qualifier == null) {
+        return true;
+      }
+      if (qualifier instanceof Qualifier) {
+        String expectedValue = ((Qualifier) qualifier).value();
+        String value = annotationName(binding);
+
+        // we cannot use @Qualified as a binding annotation
+        // so we can't test for just a @Qualified binding with no text
+        // so lets just test for a non-empty string
+        if (Strings.isNotEmpty(expectedValue)) {
+          return Comparators.equal(expectedValue, value);
+        }
+        else {
+          return Strings.isNotEmpty(value);
+        }
+      }
+      Annotation actualAnnotation = binding.getKey().getAnnotation();
+      return actualAnnotation != null && actualAnnotation.equals(qualifier);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof QualifierFilter
+          && Objects.equal(qualifier, ((QualifierFilter) obj).qualifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return qualifier != null ? qualifier.hashCode() : 0;
+    }
+
+    @Override
+    public String toString() {
+      if (qualifier == null) {
+        return "@Autowired";
+      }
+      if (qualifier instanceof Qualifier) {
+        return "@Autowired @Qualifier(" + ((Qualifier) qualifier).value() + ")";
+      }
+      return "@Autowired " + qualifier;
+    }
+  }
+
+  /** The provider of the value autowired into a member */
+  private abstract static class MemberProvider implements Provider<Object> {
+    private final Predicate<Binding> filter;
+    private final Member member;
+
+    MemberProvider(Predicate<Binding> filter, Member member) {
+      this.filter = filter;
+      this.member = member;
+    }
+
+    @Override
+    public String toString() {
+      return filter + " " + member;
+    }
+  }
+
+  /** The provider of a member which has no bindings to autowire */
+  private static class NullProvider extends MemberProvider {
+    NullProvider(Predicate<Binding> filter, Member member) {
+      super(filter, member);
+    }
+
+    public Object get() {
+      return null;
+    }
+  }
+
+  /** The provider of the set of a Multibinder */
+  private static class MultibindingProvider implements Provider<Collection<?>> {
+    private final Provider<? extends Collection<?>> provider;
+
+    MultibindingProvider(Provider<? extends Collection<?>> provider) {
+      this.provider = provider;
+    }
+
+    public Collection<?> get() {
+      return provider.get();
+    }
+  }
+
+  /** Detects the bindings of the sets and maps of Multibinders and MapBinders */
+  private static class MultibindingVisitor extends DefaultBindingTargetVisitor<Object, Boolean>
+      implements MultibindingsTargetVisitor<Object, Boolean> {
+
+    public Boolean visit(MultibinderBinding<? extends Object> multibinding) {
+      return Boolean.TRUE;
+    }
+
+    public Boolean visit(MapBinderBinding<? extends Object> mapbinding) {
+      return Boolean.TRUE;
+    }
+  }
+
+  /** The type and qualifier filter of the autowire candidates of a member */
+  private static class CandidateKey {
+    private final Class<?> type;
+    private final Predicate<Binding> filter;
+
+    CandidateKey(Class<?> type, Predicate<Binding> filter) {
+      this.type = type;
+      this.filter = filter;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof CandidateKey) {
+        CandidateKey that = (CandidateKey) obj;
+        return type.equals(that.type) && filter.equals(that.filter);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * type.hashCode() + filter.hashCode();
+    }
+  }
 }
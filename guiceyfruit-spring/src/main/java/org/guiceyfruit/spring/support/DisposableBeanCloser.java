@@ -19,6 +19,7 @@
 package org.guiceyfruit.spring.support;
 
 import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.TypedCloser;
 import org.springframework.beans.factory.DisposableBean;
 
 /**
@@ -27,7 +28,11 @@ import org.springframework.beans.factory.DisposableBean;
  *
  * @version $Revision: 1.1 $
  */
-public class DisposableBeanCloser implements Closer {
+public class DisposableBeanCloser implements TypedCloser {
+  public boolean isCloseable(Class<?> type) {
+    return DisposableBean.class.isAssignableFrom(type);
+  }
+
   public void close(Object object) throws Throwable {
     if (object instanceof DisposableBean) {
       DisposableBean disposableBean = (DisposableBean) object;
@@ -0,0 +1,76 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.TypedCloser;
+
+import com.google.inject.Inject;
+
+/**
+ * A {@link Closer} which stops the running Spring <code>Lifecycle</code> singletons using the
+ * {@link LifecycleProcessor} of the injector when the first of them is closed, so that they are all
+ * stopped in the order of their phases before any of them is destroyed. The failure to stop a bean
+ * is thrown when that bean is closed.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LifecycleCloser implements TypedCloser {
+  private final LifecycleProcessor processor;
+  private Map<Object, Exception> failures;
+
+  @Inject
+  public LifecycleCloser(LifecycleProcessor processor) {
+    this.processor = processor;
+  }
+
+  public boolean isCloseable(Class<?> type) {
+    return processor.isLifecycleType(type);
+  }
+
+  public void close(Object object) throws Throwable {
+    if (processor.isLifecycleBean(object)) {
+      Exception failure = stop().get(object);
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /** Stops the lifecycle singletons once returning the failures to stop each bean */
+  private synchronized Map<Object, Exception> stop() {
+    if (failures == null) {
+      final Map<Object, Exception> answer = new IdentityHashMap<Object, Exception>();
+      processor.stop(new CloseErrors() {
+        public void closeError(Object key, Object object, Exception cause) {
+          answer.put(object, cause);
+        }
+
+        public void throwIfNecessary() {
+        }
+      });
+      failures = answer;
+    }
+    return failures;
+  }
+}
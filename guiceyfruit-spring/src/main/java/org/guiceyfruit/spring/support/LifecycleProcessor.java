@@ -0,0 +1,547 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring.support;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.support.CloseErrors;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.Reflectors;
+import org.guiceyfruit.support.internal.CloseErrorsImpl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+
+/**
+ * Starts and stops the singletons of an injector which implement the Spring
+ * <code>org.springframework.context.Lifecycle</code> interface in the order of their phase. As in
+ * Spring the type of each singleton is checked, so a singleton bound to an interface which links to
+ * a lifecycle class is started and stopped too.
+ *
+ * Beans which implement <code>Phased</code> or <code>SmartLifecycle</code> are started in
+ * ascending order of their phase and stopped in descending order; other beans are in phase 0. Beans
+ * in the same phase are started or stopped concurrently. The asynchronous
+ * <code>SmartLifecycle.stop(Runnable)</code> method is used to stop <code>SmartLifecycle</code>
+ * beans, waiting up to the {@link #STOP_TIMEOUT} for each phase to stop. The running beans are
+ * stopped when the injector is closed by the {@link LifecycleCloser}.
+ *
+ * The lifecycle interfaces are found by name as they are part of the optional spring-context
+ * module and <code>SmartLifecycle</code> is only available from Spring 3.0; if there is no
+ * <code>Lifecycle</code> interface on the class path then there are no beans to start or stop. The
+ * phase, auto startup flag and asynchronous stop method of a bean are only used if it implements
+ * <code>Phased</code> or <code>SmartLifecycle</code>.
+ *
+ * @version $Revision: 1.1 $
+ */
+@Singleton
+public class LifecycleProcessor {
+  /** The name of the Spring lifecycle interface */
+  public static final String LIFECYCLE_CLASS = "org.springframework.context.Lifecycle";
+  /** The name of the Spring interface of beans which have a phase */
+  public static final String PHASED_CLASS = "org.springframework.context.Phased";
+  /** The name of the Spring interface of lifecycle beans which can be auto started */
+  public static final String SMART_LIFECYCLE_CLASS = "org.springframework.context.SmartLifecycle";
+  /** The name of the constant of the milliseconds to wait for the beans in a phase to start */
+  public static final String START_TIMEOUT = "org.guiceyfruit.spring.lifecycleStartTimeout";
+  /** The name of the constant of the milliseconds to wait for the beans in a phase to stop */
+  public static final String STOP_TIMEOUT = "org.guiceyfruit.spring.lifecycleStopTimeout";
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "GuiceyFruit Lifecycle");
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  private final Injector injector;
+  private final Class<?> lifecycleType;
+  private final Class<?> phasedType;
+  private final Class<?> smartLifecycleType;
+  private final ConcurrentMap<Class<?>, LifecycleMethods> methods
+      = new ConcurrentHashMap<Class<?>, LifecycleMethods>();
+  private volatile List<Object> beans;
+  private long startTimeout = 60000;
+  private long stopTimeout = 30000;
+
+  @Inject
+  public LifecycleProcessor(Injector injector) {
+    this(injector, loadType(LIFECYCLE_CLASS));
+  }
+
+  /**
+   * Creates a processor of the singletons which implement the given lifecycle type, which has the
+   * same methods as the Spring <code>Lifecycle</code> interface, or of no singletons if the type is
+   * null
+   */
+  public LifecycleProcessor(Injector injector, Class<?> lifecycleType) {
+    this(injector, lifecycleType, loadType(PHASED_CLASS), loadType(SMART_LIFECYCLE_CLASS));
+  }
+
+  /**
+   * Creates a processor of the singletons which implement the given lifecycle type using the
+   * methods of the given types, which have the same methods as the Spring <code>Phased</code> and
+   * <code>SmartLifecycle</code> interfaces, for the beans which implement them. Either type may be
+   * null if it is not available.
+   */
+  public LifecycleProcessor(Injector injector, Class<?> lifecycleType, Class<?> phasedType,
+      Class<?> smartLifecycleType) {
+    this.injector = injector;
+    this.lifecycleType = lifecycleType;
+    this.phasedType = phasedType;
+    this.smartLifecycleType = smartLifecycleType;
+  }
+
+  private static Class<?> loadType(String name) {
+    try {
+      return Class.forName(name, false, LifecycleProcessor.class.getClassLoader());
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  public long getStartTimeout() {
+    return startTimeout;
+  }
+
+  @Inject(optional = true)
+  public void setStartTimeout(@Named(START_TIMEOUT) long startTimeout) {
+    this.startTimeout = startTimeout;
+  }
+
+  public long getStopTimeout() {
+    return stopTimeout;
+  }
+
+  @Inject(optional = true)
+  public void setStopTimeout(@Named(STOP_TIMEOUT) long stopTimeout) {
+    this.stopTimeout = stopTimeout;
+  }
+
+  /** Starts all of the lifecycle singletons which are not running */
+  public void start() {
+    start(false);
+  }
+
+  /**
+   * Starts the lifecycle singletons which are <code>SmartLifecycle</code> beans returning true from
+   * <code>isAutoStartup()</code>, as Spring does when an application context is refreshed
+   */
+  public void startAutoStartup() {
+    start(true);
+  }
+
+  /** Stops all of the running lifecycle singletons found when the singletons were started */
+  public void stop() throws CloseFailedException {
+    CloseErrorsImpl errors = new CloseErrorsImpl(this);
+    stop(errors);
+    errors.throwIfNecessary();
+  }
+
+  /**
+   * Stops all of the running lifecycle singletons reporting any which fail to stop, or do not stop
+   * within the timeout of their phase, to the errors
+   */
+  public void stop(CloseErrors errors) {
+    if (beans == null) {
+      // lets not create singletons just to stop them
+      return;
+    }
+    SortedMap<Integer, List<Object>> phases = getPhases(false);
+    List<Integer> order = Lists.newArrayList(phases.keySet());
+    Collections.reverse(order);
+    ExecutorService executor = null;
+    try {
+      for (Integer phase : order) {
+        List<Object> running = Lists.newArrayList();
+        for (Object bean : phases.get(phase)) {
+          if (getMethods(bean).isRunning(bean)) {
+            running.add(bean);
+          }
+        }
+        if (running.isEmpty()) {
+          continue;
+        }
+        if (executor == null) {
+          executor = Executors.newCachedThreadPool(THREAD_FACTORY);
+        }
+        stopPhase(phase, running, executor, errors);
+      }
+    }
+    finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /** Returns the lifecycle singletons of the injector, creating them the first time */
+  public List<Object> getLifecycleBeans() {
+    List<Object> answer = beans;
+    if (answer == null) {
+      ImmutableList.Builder<Object> builder = ImmutableList.builder();
+      if (lifecycleType != null) {
+        // the keys linked to a singleton share its instance
+        Set<Object> found = Sets.newIdentityHashSet();
+        for (Binding<?> binding : injector.getAllBindings().values()) {
+          if ((binding instanceof InstanceBinding
+              || Singleton.class.equals(Injectors.getScopeAnnotation(binding)))
+              && isLifecycleBinding(binding)) {
+            Object bean = binding.getProvider().get();
+            if (lifecycleType.isInstance(bean) && found.add(bean)) {
+              builder.add(bean);
+            }
+          }
+        }
+      }
+      answer = builder.build();
+      beans = answer;
+    }
+    return answer;
+  }
+
+  /** Returns true if objects of the given class are lifecycle beans */
+  public boolean isLifecycleType(Class<?> type) {
+    return lifecycleType != null && lifecycleType.isAssignableFrom(type);
+  }
+
+  /**
+   * Returns true if the object is one of the lifecycle singletons, without creating them if they
+   * have not been found yet
+   */
+  public boolean isLifecycleBean(Object object) {
+    List<Object> list = beans;
+    if (list != null) {
+      for (Object bean : list) {
+        if (bean == object) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the binding provides lifecycle beans from the type of its instance or of the
+   * binding it links to, rather than from its key type
+   */
+  protected boolean isLifecycleBinding(Binding<?> binding) {
+    Binding<?> target = binding;
+    while (target instanceof LinkedKeyBinding) {
+      target = injector.getBinding(((LinkedKeyBinding<?>) target).getLinkedKey());
+    }
+    if (target instanceof InstanceBinding) {
+      return lifecycleType.isInstance(((InstanceBinding<?>) target).getInstance());
+    }
+    return isLifecycleType(Injectors.getKeyType(target.getKey()));
+  }
+
+  /**
+   * Starts the beans phase by phase. If any bean fails to start then the beans started so far are
+   * stopped in the reverse order of their phases before the failure is thrown, as Spring does when
+   * a refresh fails, so that they are not left running.
+   */
+  protected void start(boolean autoStartupOnly) {
+    SortedMap<Integer, List<Object>> phases = getPhases(autoStartupOnly);
+    SortedMap<Integer, List<Object>> started = Maps.newTreeMap();
+    ExecutorService executor = null;
+    try {
+      for (Map.Entry<Integer, List<Object>> entry : phases.entrySet()) {
+        List<Object> startedInPhase = Lists.newArrayList();
+        started.put(entry.getKey(), startedInPhase);
+        List<Future<?>> futures = Lists.newArrayList();
+        for (final Object bean : entry.getValue()) {
+          final LifecycleMethods lifecycle = getMethods(bean);
+          if (!lifecycle.isRunning(bean)) {
+            if (executor == null) {
+              executor = Executors.newCachedThreadPool(THREAD_FACTORY);
+            }
+            startedInPhase.add(bean);
+            futures.add(executor.submit(new Runnable() {
+              public void run() {
+                lifecycle.start(bean);
+              }
+            }));
+          }
+        }
+        try {
+          awaitStarted(entry.getKey(), futures);
+        }
+        catch (ProvisionException e) {
+          throw stopStarted(started, executor, e);
+        }
+      }
+    }
+    finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Stops the running beans of the started phases in reverse order after a start failure,
+   * returning the failure to throw which also describes any beans which failed to stop
+   */
+  protected ProvisionException stopStarted(SortedMap<Integer, List<Object>> started,
+      ExecutorService executor, ProvisionException failure) {
+    CloseErrorsImpl errors = new CloseErrorsImpl(this);
+    List<Integer> order = Lists.newArrayList(started.keySet());
+    Collections.reverse(order);
+    for (Integer phase : order) {
+      List<Object> running = Lists.newArrayList();
+      for (Object bean : started.get(phase)) {
+        if (getMethods(bean).isRunning(bean)) {
+          running.add(bean);
+        }
+      }
+      if (!running.isEmpty()) {
+        stopPhase(phase, running, executor, errors);
+      }
+    }
+    try {
+      errors.throwIfNecessary();
+    }
+    catch (CloseFailedException e) {
+      return new ProvisionException(
+          Iterables.concat(failure.getErrorMessages(), e.getMessages()));
+    }
+    return failure;
+  }
+
+  /** Waits for all of the beans in the phase to start, failing if any of them could not start */
+  protected void awaitStarted(int phase, List<Future<?>> futures) {
+    long deadline = System.currentTimeMillis() + startTimeout;
+    List<Throwable> failures = Lists.newArrayList();
+    for (Future<?> future : futures) {
+      try {
+        future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+      }
+      catch (ExecutionException e) {
+        failures.add(e.getCause());
+      }
+      catch (TimeoutException e) {
+        failures.add(e);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ProvisionException("Interrupted while starting lifecycle phase " + phase, e);
+      }
+    }
+    if (!failures.isEmpty()) {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+      Throwable cause = failures.get(0);
+      throw new ProvisionException("Failed to start lifecycle phase " + phase + " within "
+          + startTimeout + " millis: " + failures, cause);
+    }
+  }
+
+  /**
+   * Stops the running beans of the phase concurrently, waiting up to the stop timeout for them all
+   * to stop
+   */
+  protected void stopPhase(int phase, List<Object> running, ExecutorService executor,
+      final CloseErrors errors) {
+    final CountDownLatch latch = new CountDownLatch(running.size());
+    for (final Object bean : running) {
+      final LifecycleMethods lifecycle = getMethods(bean);
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            if (!lifecycle.stop(bean, new Runnable() {
+              public void run() {
+                latch.countDown();
+              }
+            })) {
+              latch.countDown();
+            }
+          }
+          catch (RuntimeException e) {
+            errors.closeError(bean.getClass().getName(), bean, e);
+            latch.countDown();
+          }
+        }
+      });
+    }
+    try {
+      if (!latch.await(stopTimeout, TimeUnit.MILLISECONDS)) {
+        for (Object bean : running) {
+          if (getMethods(bean).isRunning(bean)) {
+            errors.closeError(bean.getClass().getName(), bean, new TimeoutException(
+                "Lifecycle phase " + phase + " did not stop within " + stopTimeout + " millis"));
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      for (Object bean : running) {
+        errors.closeError(bean.getClass().getName(), bean, e);
+      }
+    }
+  }
+
+  /** Returns the lifecycle beans grouped by their phase in ascending order */
+  protected SortedMap<Integer, List<Object>> getPhases(boolean autoStartupOnly) {
+    SortedMap<Integer, List<Object>> answer = Maps.newTreeMap();
+    for (Object bean : getLifecycleBeans()) {
+      LifecycleMethods lifecycle = getMethods(bean);
+      if (autoStartupOnly && !lifecycle.isAutoStartup(bean)) {
+        continue;
+      }
+      Integer phase = lifecycle.getPhase(bean);
+      List<Object> list = answer.get(phase);
+      if (list == null) {
+        list = Lists.newArrayList();
+        answer.put(phase, list);
+      }
+      list.add(bean);
+    }
+    return answer;
+  }
+
+  protected LifecycleMethods getMethods(Object bean) {
+    Class<?> type = bean.getClass();
+    LifecycleMethods answer = methods.get(type);
+    if (answer == null) {
+      answer = new LifecycleMethods(type, phasedType, smartLifecycleType);
+      methods.put(type, answer);
+    }
+    return answer;
+  }
+
+  /**
+   * The lifecycle methods of a bean class which are looked up once. The methods of the phased and
+   * smart lifecycle types are only used if the class implements them.
+   */
+  protected static class LifecycleMethods {
+    private final Method start;
+    private final Method stop;
+    private final Method isRunning;
+    private final Method getPhase;
+    private final Method isAutoStartup;
+    private final Method stopWithCallback;
+
+    public LifecycleMethods(Class<?> type, Class<?> phasedType, Class<?> smartLifecycleType) {
+      start = getMethod(type, "start");
+      stop = getMethod(type, "stop");
+      isRunning = getMethod(type, "isRunning");
+      getPhase = isAssignable(phasedType, type) ? getMethod(phasedType, "getPhase") : null;
+      if (isAssignable(smartLifecycleType, type)) {
+        isAutoStartup = getMethod(smartLifecycleType, "isAutoStartup");
+        stopWithCallback = getMethod(smartLifecycleType, "stop", Runnable.class);
+      }
+      else {
+        isAutoStartup = null;
+        stopWithCallback = null;
+      }
+    }
+
+    private static boolean isAssignable(Class<?> interfaceType, Class<?> type) {
+      return interfaceType != null && interfaceType.isAssignableFrom(type);
+    }
+
+    private static Method getMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+      try {
+        return Reflectors.makeAccessible(type.getMethod(name, parameterTypes));
+      }
+      catch (NoSuchMethodException e) {
+        throw new ProvisionException("No lifecycle method " + name + "() on " + type, e);
+      }
+    }
+
+    public void start(Object bean) {
+      invoke(start, bean);
+    }
+
+    /**
+     * Stops the bean returning true if the callback will be invoked once it has stopped or false
+     * if it has already stopped
+     */
+    public boolean stop(Object bean, Runnable callback) {
+      if (stopWithCallback != null) {
+        invoke(stopWithCallback, bean, callback);
+        return true;
+      }
+      invoke(stop, bean);
+      return false;
+    }
+
+    public boolean isRunning(Object bean) {
+      return Boolean.TRUE.equals(invoke(isRunning, bean));
+    }
+
+    /** Returns the phase of a <code>Phased</code> bean or 0 */
+    public int getPhase(Object bean) {
+      if (getPhase == null) {
+        return 0;
+      }
+      return ((Number) invoke(getPhase, bean)).intValue();
+    }
+
+    /** Returns true if the bean is a <code>SmartLifecycle</code> which should be auto started */
+    public boolean isAutoStartup(Object bean) {
+      return isAutoStartup != null && Boolean.TRUE.equals(invoke(isAutoStartup, bean));
+    }
+
+    private static Object invoke(Method method, Object bean, Object... arguments) {
+      try {
+        return method.invoke(bean, arguments);
+      }
+      catch (IllegalAccessException e) {
+        throw new ProvisionException("Failed to invoke " + method + ". Reason: " + e, e);
+      }
+      catch (InvocationTargetException ie) {
+        Throwable e = ie.getTargetException();
+        throw new ProvisionException("Failed to invoke " + method + ". Reason: " + e, e);
+      }
+    }
+  }
+}
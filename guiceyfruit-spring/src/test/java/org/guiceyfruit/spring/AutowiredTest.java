@@ -18,17 +18,29 @@
 
 package org.guiceyfruit.spring;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.MapBinder;
+import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 import org.guiceyfruit.Configures;
 import org.guiceyfruit.Injectors;
+import org.guiceyfruit.spring.testbeans.ConstructorResourceInjectionBean;
+import org.guiceyfruit.spring.testbeans.ConstructorsCollectionResourceInjectionBean;
+import org.guiceyfruit.spring.testbeans.ConstructorsResourceInjectionBean;
 import org.guiceyfruit.spring.testbeans.IndexedTestBean;
+import org.guiceyfruit.spring.testbeans.MapConstructorInjectionBean;
 import org.guiceyfruit.spring.testbeans.MapFieldInjectionBean;
 import org.guiceyfruit.spring.testbeans.MapMethodInjectionBean;
+import org.guiceyfruit.spring.testbeans.MultibinderInjectionBean;
 import org.guiceyfruit.spring.testbeans.NestedTestBean;
 import org.guiceyfruit.spring.testbeans.OptionalCollectionResourceInjectionBean;
 import org.guiceyfruit.spring.testbeans.OptionalResourceInjectionBean;
@@ -37,6 +49,8 @@ import org.guiceyfruit.spring.testbeans.TestBean;
 import org.guiceyfruit.spring.testbeans.TypedExtendedResourceInjectionBean;
 import org.guiceyfruit.support.GuiceyFruitModule;
 import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 
 /**
@@ -155,6 +169,198 @@ public class AutowiredTest extends TestCase {
     assertNull(bean.getNestedTestBeans());
   }
 
+  public void testAutowiredCandidatesResolvedOncePerMember() {
+    final AtomicInteger counter = new AtomicInteger();
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(TestBean.class).toProvider(new Provider<TestBean>() {
+          public TestBean get() {
+            return new TestBean("tb" + counter.incrementAndGet());
+          }
+        });
+      }
+    });
+
+    for (int i = 1; i <= 2; i++) {
+      OptionalResourceInjectionBean bean = injector
+          .getInstance(OptionalResourceInjectionBean.class);
+      assertNotNull(bean.getTestBean());
+      assertNotSame("Should invoke the binding for each member", bean.getTestBean(),
+          bean.getTestBean2());
+      assertNull("Should not inject a missing optional array", bean.getNestedTestBeans());
+      assertNull(bean.nestedTestBeansField);
+    }
+    assertTrue("Should have provided new values for each bean", counter.get() >= 4);
+  }
+
+  public void testRequiredProviderMemberFailsOnInjection() {
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+      }
+    });
+
+    try {
+      injector.getInstance(ProviderInjectionBean.class);
+      fail("Should have failed to inject a provider of a missing required bean");
+    }
+    catch (ProvisionException e) {
+      // expected
+    }
+  }
+
+  public void testMultibinderInjection() {
+    final NestedTestBean ntb1 = new NestedTestBean("ntb1");
+    final NestedTestBean ntb2 = new NestedTestBean("ntb2");
+    final NestedTestBean ntb3 = new NestedTestBean("ntb3");
+    final TestBean tb1 = new TestBean("tb1");
+    final TestBean tb2 = new TestBean("tb2");
+
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        Multibinder<NestedTestBean> multibinder
+            = Multibinder.newSetBinder(binder(), NestedTestBean.class);
+        multibinder.addBinding().toInstance(ntb1);
+        multibinder.addBinding().toInstance(ntb2);
+        multibinder.addBinding().toInstance(ntb3);
+
+        MapBinder<String, TestBean> mapBinder
+            = MapBinder.newMapBinder(binder(), String.class, TestBean.class);
+        mapBinder.addBinding("tb1").toInstance(tb1);
+        mapBinder.addBinding("tb2").toInstance(tb2);
+      }
+    });
+
+    MultibinderInjectionBean bean = injector.getInstance(MultibinderInjectionBean.class);
+    assertEquals(ImmutableSet.of(ntb1, ntb2, ntb3), bean.nestedTestBeanSet);
+    assertEquals(Arrays.asList(ntb1, ntb2, ntb3), bean.nestedTestBeanList);
+    assertEquals(Arrays.asList(ntb1, ntb2, ntb3), Arrays.asList(bean.nestedTestBeanArray));
+    assertEquals(2, bean.testBeanMap.size());
+    assertSame(tb1, bean.testBeanMap.get("tb1"));
+    assertSame(tb2, bean.testBeanMap.get("tb2"));
+  }
+
+  public void testConstructorResourceInjection() {
+    final TestBean tb = new TestBean();
+    final NestedTestBean ntb = new NestedTestBean();
+    final DefaultListableBeanFactory bf = new DefaultListableBeanFactory();
+
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(ConstructorResourceInjectionBean.class);
+        bind(TestBean.class).toInstance(tb);
+        bind(NestedTestBean.class).toInstance(ntb);
+        bind(ConfigurableListableBeanFactory.class).toInstance(bf);
+      }
+    });
+
+    for (int i = 0; i < 2; i++) {
+      ConstructorResourceInjectionBean bean = injector
+          .getInstance(ConstructorResourceInjectionBean.class);
+      assertSame(tb, bean.getTestBean());
+      assertSame(tb, bean.getTestBean2());
+      assertSame(tb, bean.getTestBean3());
+      assertSame(tb, bean.getTestBean4());
+      assertSame(ntb, bean.getNestedTestBean());
+      assertSame(bf, bean.getBeanFactory());
+    }
+  }
+
+  public void testConstructorResourceInjectionWithMultipleCandidates() {
+    final TestBean tb = new TestBean();
+    final NestedTestBean ntb1 = new NestedTestBean("ntb1");
+    final NestedTestBean ntb2 = new NestedTestBean("ntb2");
+
+    Injector injector = SpringModule.createInjector(new GuiceyFruitModule() {
+      protected void configure() {
+        bind(ConstructorsResourceInjectionBean.class);
+        bind(ConstructorsCollectionResourceInjectionBean.class);
+        bind(TestBean.class).toInstance(tb);
+        bind(NestedTestBean.class, "nestedTestBean1").toInstance(ntb1);
+        bind(NestedTestBean.class, "nestedTestBean2").toInstance(ntb2);
+      }
+    });
+
+    ConstructorsResourceInjectionBean bean = injector
+        .getInstance(ConstructorsResourceInjectionBean.class);
+    assertNull(bean.getTestBean3());
+    assertSame(tb, bean.getTestBean4());
+    assertEquals(2, bean.getNestedTestBeans().length);
+    assertSame(ntb1, bean.getNestedTestBeans()[0]);
+    assertSame(ntb2, bean.getNestedTestBeans()[1]);
+
+    ConstructorsCollectionResourceInjectionBean collectionBean = injector
+        .getInstance(ConstructorsCollectionResourceInjectionBean.class);
+    assertNull(collectionBean.getTestBean3());
+    assertSame(tb, collectionBean.getTestBean4());
+    assertEquals(Arrays.asList(ntb1, ntb2), collectionBean.getNestedTestBeans());
+  }
+
+  public void testConstructorResourceInjectionWithMultipleCandidatesAndFallback() {
+    final TestBean tb = new TestBean();
+
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(ConstructorsResourceInjectionBean.class).in(Singleton.class);
+        bind(TestBean.class).toInstance(tb);
+      }
+    });
+
+    ConstructorsResourceInjectionBean bean = injector
+        .getInstance(ConstructorsResourceInjectionBean.class);
+    assertSame(tb, bean.getTestBean3());
+    assertNull(bean.getTestBean4());
+    assertSame("Should keep the scope of the binding", bean,
+        injector.getInstance(ConstructorsResourceInjectionBean.class));
+  }
+
+  public void testConstructorResourceInjectionOfLinkedSingleton() {
+    final TestBean tb = new TestBean();
+
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(FirstService.class).to(SingletonService.class);
+        bind(SecondService.class).to(SingletonService.class);
+        bind(TestBean.class).toInstance(tb);
+      }
+    });
+
+    SingletonService service = injector.getInstance(SingletonService.class);
+    assertSame(tb, service.testBean);
+    assertSame("Should share the singleton", service, injector.getInstance(FirstService.class));
+    assertSame("Should share the singleton", service, injector.getInstance(SecondService.class));
+  }
+
+  public void testConstructorResourceInjectionWithMultipleCandidatesAndDefaultFallback() {
+    Injector injector = SpringModule.createInjector(new AbstractModule() {
+      protected void configure() {
+        bind(ConstructorsResourceInjectionBean.class);
+      }
+    });
+
+    ConstructorsResourceInjectionBean bean = injector
+        .getInstance(ConstructorsResourceInjectionBean.class);
+    assertNull(bean.getTestBean3());
+    assertNull(bean.getTestBean4());
+  }
+
+  public void testConstructorInjectionWithMap() {
+    final TestBean tb1 = new TestBean("tb1");
+    final TestBean tb2 = new TestBean("tb2");
+
+    Injector injector = SpringModule.createInjector(new GuiceyFruitModule() {
+      protected void configure() {
+        bind(MapConstructorInjectionBean.class);
+        bind(TestBean.class, "testBean1").toInstance(tb1);
+        bind(TestBean.class, "testBean2").toInstance(tb2);
+      }
+    });
+
+    MapConstructorInjectionBean bean = injector.getInstance(MapConstructorInjectionBean.class);
+    assertEquals(2, bean.getTestBeanMap().size());
+    assertTrue(bean.getTestBeanMap().values().contains(tb1));
+    assertTrue(bean.getTestBeanMap().values().contains(tb2));
+  }
+
   public void testResourceInjection() {
     final TestBean tb = new TestBean();
 
@@ -909,4 +1115,28 @@ public class AutowiredTest extends TestCase {
     // return name;
     return Key.get(type, Names.named(name)).toString();
   }
+
+  public interface MissingService {
+  }
+
+  public interface FirstService {
+  }
+
+  public interface SecondService {
+  }
+
+  @Singleton
+  public static class SingletonService implements FirstService, SecondService {
+    private final TestBean testBean;
+
+    @Autowired
+    public SingletonService(TestBean testBean) {
+      this.testBean = testBean;
+    }
+  }
+
+  public static class ProviderInjectionBean {
+    @Autowired
+    public Provider<MissingService> service;
+  }
 }
@@ -0,0 +1,334 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.guiceyfruit.spring;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provides;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.guiceyfruit.Injectors;
+import org.guiceyfruit.spring.support.LifecycleCloser;
+import org.guiceyfruit.spring.support.LifecycleProcessor;
+import org.guiceyfruit.support.CloseFailedException;
+import org.guiceyfruit.support.Closer;
+import org.guiceyfruit.support.GuiceyFruitModule;
+
+/**
+ * Tests the {@link LifecycleProcessor} using interfaces with the same methods as Spring's
+ * Lifecycle, Phased and SmartLifecycle as spring-context is not a dependency of this module
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LifecycleProcessorTest extends TestCase {
+  private static final List<String> EVENTS = new CopyOnWriteArrayList<String>();
+
+  protected void setUp() throws Exception {
+    EVENTS.clear();
+  }
+
+  public void testPhasedStartAndStop() throws Exception {
+    // consumers in the same phase are started concurrently so both must be starting at once
+    final CountDownLatch starting = new CountDownLatch(2);
+    Injector injector = Guice.createInjector(new SpringModule(), new GuiceyFruitModule() {
+      protected void configure() {
+        bind(Scheduler.class).in(Singleton.class);
+        bind(Consumer.class, "a").toInstance(new Consumer("a", starting));
+        bind(Consumer.class, "b").toInstance(new Consumer("b", starting));
+        bind(Consumer.class, "manual").toInstance(new Consumer("manual", null) {
+          public boolean isAutoStartup() {
+            return false;
+          }
+        });
+      }
+    });
+    LifecycleProcessor processor = createProcessor(injector);
+    processor.setStopTimeout(5000);
+
+    processor.startAutoStartup();
+    assertEquals(4, processor.getLifecycleBeans().size());
+    assertEquals("scheduler", EVENTS.get(0));
+    assertTrue(EVENTS.containsAll(Arrays.asList("start a", "start b")));
+    assertFalse("Should not start beans which are not auto startup",
+        EVENTS.contains("start manual"));
+
+    EVENTS.clear();
+    processor.stop();
+    assertEquals("Should stop the higher phase first", 3, EVENTS.size());
+    assertEquals("stop scheduler", EVENTS.get(2));
+    assertFalse(injector.getInstance(Scheduler.class).isRunning());
+  }
+
+  public void testStopTimeout() throws Exception {
+    final Consumer consumer = new Consumer("hung", null) {
+      public void stop(Runnable callback) {
+        // never calls back
+      }
+    };
+    Injector injector = Guice.createInjector(new SpringModule(), new AbstractModule() {
+      protected void configure() {
+        bind(Consumer.class).toInstance(consumer);
+      }
+    });
+    LifecycleProcessor processor = createProcessor(injector);
+    processor.setStopTimeout(100);
+    processor.start();
+    assertTrue(consumer.isRunning());
+
+    try {
+      processor.stop();
+      fail("Should have timed out stopping the consumer");
+    }
+    catch (CloseFailedException e) {
+      assertTrue("Should still be running", consumer.isRunning());
+    }
+  }
+
+  public void testStopsStartedBeansWhenPhaseFailsToStart() throws Exception {
+    final Consumer consumer = new Consumer("a", null);
+    Injector injector = Guice.createInjector(new SpringModule(), new GuiceyFruitModule() {
+      protected void configure() {
+        bind(Consumer.class).toInstance(consumer);
+        bind(FailingService.class).in(Singleton.class);
+      }
+    });
+    LifecycleProcessor processor = createProcessor(injector);
+    processor.setStopTimeout(5000);
+
+    try {
+      processor.start();
+      fail("Should have failed to start phase 1");
+    }
+    catch (ProvisionException e) {
+      assertFalse("Should have stopped the bean started in phase 0", consumer.isRunning());
+      assertTrue("events " + EVENTS, EVENTS.contains("stop a"));
+    }
+  }
+
+  public void testLinkedLifecycleBean() throws Exception {
+    Injector injector = Guice.createInjector(new SpringModule(), new AbstractModule() {
+      protected void configure() {
+        bind(MessageListener.class).to(JmsConsumer.class).in(Singleton.class);
+      }
+    });
+    LifecycleProcessor processor = createProcessor(injector);
+    processor.setStopTimeout(5000);
+
+    processor.start();
+    JmsConsumer consumer = (JmsConsumer) injector.getInstance(MessageListener.class);
+    assertEquals(Arrays.<Object>asList(consumer), processor.getLifecycleBeans());
+    assertTrue("Should start the bean linked to the key", consumer.isRunning());
+
+    processor.stop();
+    assertFalse("Should stop the bean without its unrelated stop(Runnable)", consumer.isRunning());
+  }
+
+  public void testStopsBeansWhenInjectorIsClosed() throws Exception {
+    Injector injector = Guice.createInjector(new SpringModule(), new GuiceyFruitModule() {
+      protected void configure() {
+        bind(Scheduler.class).in(Singleton.class);
+        bind(Consumer.class).toInstance(new Consumer("a", null));
+      }
+
+      @Provides
+      @Singleton
+      @Named("test")
+      public LifecycleProcessor createTestProcessor(Injector injector) {
+        LifecycleProcessor processor = createProcessor(injector);
+        processor.setStopTimeout(5000);
+        return processor;
+      }
+
+      @Provides
+      @Named("test")
+      public Closer createTestCloser(@Named("test") LifecycleProcessor processor) {
+        return new LifecycleCloser(processor);
+      }
+    });
+    LifecycleProcessor processor = injector.getInstance(
+        Key.get(LifecycleProcessor.class, Names.named("test")));
+    processor.startAutoStartup();
+    assertTrue(injector.getInstance(Consumer.class).isRunning());
+
+    EVENTS.clear();
+    Injectors.close(injector);
+    assertEquals(Arrays.asList("stop a", "stop scheduler"), EVENTS);
+    assertFalse(injector.getInstance(Consumer.class).isRunning());
+  }
+
+  private static LifecycleProcessor createProcessor(Injector injector) {
+    return new LifecycleProcessor(injector, LifecycleService.class, PhasedService.class,
+        SmartService.class);
+  }
+
+  /** Has the same methods as Spring's Lifecycle */
+  public interface LifecycleService {
+    void start();
+
+    void stop();
+
+    boolean isRunning();
+  }
+
+  /** Has the same methods as Spring's Phased */
+  public interface PhasedService {
+    int getPhase();
+  }
+
+  /** Has the same methods as Spring's SmartLifecycle */
+  public interface SmartService extends LifecycleService, PhasedService {
+    boolean isAutoStartup();
+
+    void stop(Runnable callback);
+  }
+
+  public static class FailingService extends Scheduler {
+    public void start() {
+      throw new IllegalStateException("Cannot connect");
+    }
+
+    public int getPhase() {
+      return 1;
+    }
+  }
+
+  public interface MessageListener {
+  }
+
+  public enum Mode {
+    TOPIC, QUEUE
+  }
+
+  /** A plain lifecycle bean with methods which happen to have the names of SmartLifecycle's */
+  public static class JmsConsumer implements LifecycleService, MessageListener {
+    private volatile boolean running;
+
+    public void start() {
+      running = true;
+    }
+
+    public void stop() {
+      running = false;
+    }
+
+    public boolean isRunning() {
+      return running;
+    }
+
+    public Mode getPhase() {
+      return Mode.QUEUE;
+    }
+
+    public void stop(Runnable callback) {
+      // unrelated to stopping the consumer
+    }
+  }
+
+  public static class Scheduler implements SmartService {
+    private volatile boolean running;
+
+    public void start() {
+      EVENTS.add("scheduler");
+      running = true;
+    }
+
+    public void stop() {
+      EVENTS.add("stop scheduler");
+      running = false;
+    }
+
+    public boolean isRunning() {
+      return running;
+    }
+
+    public int getPhase() {
+      return -1;
+    }
+
+    public boolean isAutoStartup() {
+      return true;
+    }
+
+    public void stop(Runnable callback) {
+      stop();
+      callback.run();
+    }
+  }
+
+  public static class Consumer implements SmartService {
+    private final String name;
+    private final CountDownLatch starting;
+    private volatile boolean running;
+
+    public Consumer(String name, CountDownLatch starting) {
+      this.name = name;
+      this.starting = starting;
+    }
+
+    public void start() {
+      if (starting != null) {
+        starting.countDown();
+        try {
+          assertTrue("Should start consumers concurrently", starting.await(5, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      EVENTS.add("start " + name);
+      running = true;
+    }
+
+    public void stop() {
+      running = false;
+    }
+
+    public boolean isRunning() {
+      return running;
+    }
+
+    public int getPhase() {
+      return 0;
+    }
+
+    public boolean isAutoStartup() {
+      return true;
+    }
+
+    public void stop(final Runnable callback) {
+      new Thread() {
+        public void run() {
+          EVENTS.add("stop " + name);
+          running = false;
+          callback.run();
+        }
+      }.start();
+    }
+  }
+}